@@ -0,0 +1,28 @@
+package me.hivaze.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.module.ModuleFinder;
+
+// JMH entry point taking the usual JMH arguments. Results go to target/jmh-result.json unless -rf/-rff say otherwise,
+// forks get the vector module whenever the JDK ships it so they measure the same kernels as the tests
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) options.resultFormat(ResultFormatType.JSON);
+        if (!commandLine.getResult().hasValue()) options.result("target/jmh-result.json");
+        if (!commandLine.getJvmArgsPrepend().hasValue() && ModuleFinder.ofSystem().find("jdk.incubator.vector").isPresent()) {
+            options.jvmArgsPrepend("--add-modules=jdk.incubator.vector");
+        }
+        new Runner(options.build()).run();
+    }
+
+}
@@ -0,0 +1,88 @@
+package me.hivaze.benchmarks;
+
+import me.hivaze.utils.FastCSV;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// One pass over a generated 64 MB iris-like file, numeric cells to doubles and labels to codes.
+// splitAndParse is how SimpleCSV and the tests' builders used to read it
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvBenchmark {
+
+    private static final String[] LABELS = { "Iris-setosa", "Iris-versicolor", "Iris-virginica" };
+
+    private Path csv;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        csv = Files.createTempFile("benchmark", ".csv");
+        Random random = new Random(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(csv)) {
+            while (Files.size(csv) < 64L << 20) {
+                for (int row = 0; row < 10_000; row++) {
+                    for (int i = 0; i < 4; i++) writer.write(Math.round(random.nextDouble() * 8000) / 1000d + ",");
+                    writer.write(LABELS[random.nextInt(LABELS.length)]);
+                    writer.newLine();
+                }
+                writer.flush();
+            }
+        }
+    }
+
+    @Benchmark
+    public double splitAndParse() throws IOException {
+        Map<String, Integer> codes = new HashMap<>();
+        double sum = 0;
+        try (BufferedReader reader = Files.newBufferedReader(csv)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] values = line.split(",");
+                for (int i = 0; i < 4; i++) sum += Double.parseDouble(values[i]);
+                sum += codes.computeIfAbsent(values[4], key -> codes.size());
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double fastCsv() throws IOException {
+        double sum = 0;
+        try (FastCSV reader = new FastCSV(csv)) {
+            while (reader.nextRow()) {
+                for (int i = 0; i < 4; i++) sum += reader.getDouble(i);
+                sum += reader.getCategory(4);
+            }
+        }
+        return sum;
+    }
+
+    // cell boundaries only, the floor under fastCsv
+    @Benchmark
+    public long fastCsvRows() throws IOException {
+        long cells = 0;
+        try (FastCSV reader = new FastCSV(csv)) {
+            while (reader.nextRow()) cells += reader.getColumnCount();
+        }
+        return cells;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(csv);
+    }
+
+}
@@ -0,0 +1,75 @@
+package me.hivaze.benchmarks;
+
+import me.hivaze.neural.CompiledNetwork;
+import me.hivaze.neural.NeuralNetwork;
+import me.hivaze.neural.QuantizedNetwork;
+import me.hivaze.neural.Quantizer;
+import me.hivaze.neural.Workspace;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class InferenceBenchmark {
+
+    private static final int BATCH = 64;
+
+    @Param({ "IRIS", "MNIST", "LARGE" })
+    public Topology topology;
+
+    private NeuralNetwork network;
+    private QuantizedNetwork quantized;
+    private CompiledNetwork compiled;
+    private Workspace batchWorkspace;
+    private double[] sample, batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        network = topology.build(random).randomise();
+        batchWorkspace = network.newWorkspace(BATCH);
+        sample = topology.inputs(random, 1);
+        batch = topology.inputs(random, BATCH);
+        List<double[]> calibration = new ArrayList<>();
+        for (int i = 0; i < 32; i++) calibration.add(topology.inputs(random, 1));
+        quantized = new Quantizer(network).quantize(calibration);
+        compiled = network.compile();
+    }
+
+    @Benchmark
+    public double[] output() {
+        return network.output(sample);
+    }
+
+    @Benchmark
+    public double[] outputCompiled() {
+        return compiled.output(sample);
+    }
+
+    @Benchmark
+    public double[] outputInt8() {
+        return quantized.output(sample);
+    }
+
+    // samples per second, one batched pass over BATCH row-major inputs
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public double[] outputBatch() {
+        return network.output(batch, BATCH, batchWorkspace);
+    }
+
+    @TearDown(Level.Trial)
+    public void check() {
+        if (Arrays.stream(network.output(sample)).anyMatch(Double::isNaN)) throw new IllegalStateException("NaN output");
+    }
+
+}
@@ -0,0 +1,62 @@
+package me.hivaze.benchmarks;
+
+import me.hivaze.neural.NeuralNetwork;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Whole-model operations: initialization and the .dnn round trip
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ModelBenchmark {
+
+    @Param({ "IRIS", "MNIST", "LARGE" })
+    public Topology topology;
+
+    private NeuralNetwork network;
+    private Path saved, scratch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        network = topology.build(new Random(42)).randomise();
+        saved = Files.createTempFile("benchmark", ".dnn");
+        scratch = Files.createTempFile("benchmark", ".dnn");
+        network.saveTo(saved);
+    }
+
+    @Benchmark
+    public NeuralNetwork randomise() {
+        return network.randomise();
+    }
+
+    @Benchmark
+    public NeuralNetwork save() throws IOException {
+        return network.saveTo(scratch);
+    }
+
+    // mapping is lazy, so one output is included to touch every weight once. Single shots, since mappings are only
+    // released by GC and back-to-back loads would run out of them long before the heap asks for a collection
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public double[] loadAndOutput() throws IOException {
+        NeuralNetwork loaded = new NeuralNetwork(saved);
+        return loaded.output(new double[topology.getInputSize()]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(saved);
+        Files.deleteIfExists(scratch);
+    }
+
+}
@@ -0,0 +1,38 @@
+package me.hivaze.benchmarks;
+
+import me.hivaze.neural.NeuralNetwork;
+import me.hivaze.neural.Neuron;
+
+import java.util.Random;
+
+// Networks measured by the suites, from the iris test up to the model used in the serialization test
+public enum Topology {
+
+    IRIS(4, new int[] { 8, 4, 8 }, 1, Neuron.Activation.TANH),
+    MNIST(784, new int[] { 128, 64 }, 10, Neuron.Activation.SIGMOID),
+    LARGE(500, new int[] { 2000, 5000, 3000, 5000, 2000 }, 100, Neuron.Activation.SIGMOID);
+
+    private final int inputSize, outputSize;
+    private final int[] hiddenLayerSizes;
+    private final Neuron.Activation activation;
+
+    Topology(int inputSize, int[] hiddenLayerSizes, int outputSize, Neuron.Activation activation) {
+        this.inputSize = inputSize;
+        this.hiddenLayerSizes = hiddenLayerSizes;
+        this.outputSize = outputSize;
+        this.activation = activation;
+    }
+
+    public NeuralNetwork build(Random random) {
+        return new NeuralNetwork(inputSize, hiddenLayerSizes, outputSize, random, activation, NeuralNetwork.Initialization.NGUYEN_WIDROW);
+    }
+
+    public double[] inputs(Random random, int samples) {
+        return random.doubles((long) samples * inputSize).toArray();
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+}
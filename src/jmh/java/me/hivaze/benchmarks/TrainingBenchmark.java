@@ -0,0 +1,58 @@
+package me.hivaze.benchmarks;
+
+import me.hivaze.neural.NeuralNetwork;
+import me.hivaze.neural.Neuron;
+import me.hivaze.utils.Pair;
+import me.hivaze.utils.SimpleCSV;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Epochs over the iris training set, the workload of IrisDatasetTest
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrainingBenchmark {
+
+    private static final int MUTATIONS = 100;
+
+    private List<Pair<double[]>> dataset;
+    private NeuralNetwork network;
+    private double[] neverReached;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataset = new ArrayList<>();
+        for (List<String> row : SimpleCSV.readFileWithoutHeaders(Paths.get("src/test/resources", "datasets", "iris.csv"))) {
+            double[] input = new double[4];
+            for (int i = 0; i < input.length; i++) input[i] = Double.parseDouble(row.get(i));
+            double label = row.get(4).equals("Iris-setosa") ? 1 : row.get(4).equals("Iris-versicolor") ? 0 : -1;
+            dataset.add(new Pair<>(input, new double[] { label }));
+        }
+        network = new NeuralNetwork(4, new int[] { 8, 4, 8 }, 1, new Random(42), Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                .randomise();
+        neverReached = new double[] { -1 };
+    }
+
+    // one epoch per invocation, the error goal can't be met so training never stops early
+    @Benchmark
+    public long backPropagationEpoch() {
+        return network.backPropagationTrain(dataset, 0.005, neverReached, 1);
+    }
+
+    // every iteration evaluates the dataset and mutates, a zero error goal is never met
+    @Benchmark
+    @OperationsPerInvocation(MUTATIONS)
+    public long mutationIterations() {
+        return network.mutationTrain(dataset, 0.2f, 0d, MUTATIONS);
+    }
+
+}
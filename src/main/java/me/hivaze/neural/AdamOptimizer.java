@@ -0,0 +1,61 @@
+package me.hivaze.neural;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Adam: running first and second moments of the gradient with bias correction, Kingma & Ba 2014
+public class AdamOptimizer implements Optimizer {
+
+    private final Gradients moments, squares;
+    private double beta1 = 0.9, beta2 = 0.999, epsilon = 1e-8;
+    private double correction1 = 1, correction2 = 1;
+    // a one-element array so that checkpoints save the step count with the moments
+    private final double[] steps = new double[1];
+
+    public AdamOptimizer(NeuralNetwork network) {
+        this.moments = new Gradients(network);
+        this.squares = new Gradients(network);
+    }
+
+    public AdamOptimizer betas(double beta1, double beta2) {
+        assert beta1 >= 0 && beta1 < 1 && beta2 >= 0 && beta2 < 1;
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        return this;
+    }
+
+    public AdamOptimizer epsilon(double epsilon) {
+        assert epsilon > 0;
+        this.epsilon = epsilon;
+        return this;
+    }
+
+    @Override
+    public void nextStep() {
+        steps[0]++;
+        correction1 = 1 - Math.pow(beta1, steps[0]);
+        correction2 = 1 - Math.pow(beta2, steps[0]);
+    }
+
+    @Override
+    public List<double[]> state() {
+        List<double[]> state = new ArrayList<>(moments.buffers());
+        state.addAll(squares.buffers());
+        state.add(steps);
+        return state;
+    }
+
+    @Override
+    public void update(NeuronLayer layer, boolean biases, Storage target, double[] corrections, double learningSpeed, int batchSize, int from, int to) {
+        double[] moments = biases ? this.moments.getBiases(layer) : this.moments.getWeights(layer);
+        double[] squares = biases ? this.squares.getBiases(layer) : this.squares.getWeights(layer);
+        double rate = learningSpeed / correction1, root = 1 / Math.sqrt(correction2);
+        for (int i = from; i < to; i++) {
+            double gradient = corrections[i] / batchSize;
+            double moment = moments[i] = beta1 * moments[i] + (1 - beta1) * gradient;
+            double square = squares[i] = beta2 * squares[i] + (1 - beta2) * gradient * gradient;
+            target.add(i, rate * moment / (Math.sqrt(square) * root + epsilon));
+        }
+    }
+
+}
@@ -0,0 +1,22 @@
+package me.hivaze.neural;
+
+final class ArrayDataset extends Dataset {
+
+    private final double[] records;
+
+    ArrayDataset(double[] records, int inputSize, int targetSize) {
+        super(inputSize, targetSize);
+        this.records = records;
+    }
+
+    @Override
+    public int size() {
+        return records.length / getRecordSize();
+    }
+
+    @Override
+    void copy(int index, int column, double[] target, int offset, int length) {
+        System.arraycopy(records, index * getRecordSize() + column, target, offset, length);
+    }
+
+}
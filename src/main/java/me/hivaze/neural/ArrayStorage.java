@@ -0,0 +1,85 @@
+package me.hivaze.neural;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+final class ArrayStorage extends Storage {
+
+    private final double[] values;
+
+    ArrayStorage(double[] values) {
+        this.values = values;
+    }
+
+    @Override
+    public int length() {
+        return values.length;
+    }
+
+    @Override
+    public double get(int index) {
+        return values[index];
+    }
+
+    @Override
+    public void set(int index, double value) {
+        values[index] = value;
+    }
+
+    @Override
+    public void add(int index, double value) {
+        values[index] += value;
+    }
+
+    @Override
+    public void fill(double value) {
+        Arrays.fill(values, value);
+    }
+
+    @Override
+    public void addScaled(double scale, double[] values, int from, int to) {
+        Kernels.axpy(scale, values, from, this.values, from, to - from);
+    }
+
+    @Override
+    public double dot(int offset, double[] inputs, int inputsOffset, int length) {
+        return Kernels.dot(values, offset, inputs, inputsOffset, length);
+    }
+
+    @Override
+    public void axpyTo(double alpha, int offset, double[] result, int resultOffset, int length) {
+        Kernels.axpy(alpha, values, offset, result, resultOffset, length);
+    }
+
+    @Override
+    public void copyTo(double[] target) {
+        System.arraycopy(values, 0, target, 0, values.length);
+    }
+
+    @Override
+    public void copyFrom(double[] source) {
+        System.arraycopy(source, 0, values, 0, values.length);
+    }
+
+    @Override
+    public void gemv(int rows, int columns, double[] inputs, double[] result) {
+        Kernels.gemv(values, rows, columns, inputs, result);
+    }
+
+    @Override
+    public void gemm(int rows, int columns, double[] inputs, int samples, double[] result) {
+        Kernels.gemm(values, rows, columns, inputs, samples, result);
+    }
+
+    @Override
+    public void gemvTransposed(int rows, int columns, double[] errors, double[] result) {
+        Kernels.gemvTransposed(values, rows, columns, errors, result);
+    }
+
+    @Override
+    public void writeTo(ByteBuffer target, int from, int to) {
+        target.asDoubleBuffer().put(values, from, to - from);
+        target.position(target.position() + (to - from) * Double.BYTES);
+    }
+
+}
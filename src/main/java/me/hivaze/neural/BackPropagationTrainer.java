@@ -0,0 +1,564 @@
+package me.hivaze.neural;
+
+import me.hivaze.utils.Pair;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class BackPropagationTrainer {
+
+    private final NeuralNetwork network;
+    private double learningSpeed = 0.01;
+    private int batchSize = 1, parallelism = 1;
+    private Optimizer optimizer = Optimizer.SGD;
+    private boolean shuffle, profileLayers;
+    private TrainingListener listener;
+    private Dataset validationDataset;
+    private int validationInterval, patience;
+    private Checkpoints checkpoints;
+    private PruningMask mask;
+    private RingAllReduce ring;
+    private long resumedEpochs;
+    private AtomicLongArray updateNanos;
+    private double[] flatGradients;
+
+    public BackPropagationTrainer(NeuralNetwork network) {
+        this.network = network;
+    }
+
+    public BackPropagationTrainer learningSpeed(double learningSpeed) {
+        assert learningSpeed > 0;
+        this.learningSpeed = learningSpeed;
+        return this;
+    }
+
+    // corrections are averaged over the batch and applied once per batch, 1 is plain online training
+    public BackPropagationTrainer batchSize(int batchSize) {
+        assert batchSize > 0;
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    // batches are split between this many workers, each with own workspace and gradient buffers
+    public BackPropagationTrainer parallelism(int parallelism) {
+        assert parallelism > 0;
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    // how the averaged batch corrections become weight updates, plain SGD by default
+    public BackPropagationTrainer optimizer(Optimizer optimizer) {
+        this.optimizer = optimizer;
+        return this;
+    }
+
+    // visit the examples in a new random order every epoch, drawn from the input layer's random
+    public BackPropagationTrainer shuffle(boolean shuffle) {
+        this.shuffle = shuffle;
+        return this;
+    }
+
+    // told about every finished epoch, null detaches
+    public BackPropagationTrainer listener(TrainingListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    // time forward, backward and update per layer, reported to the listener; costs two clock reads per layer and sample
+    public BackPropagationTrainer profileLayers(boolean profileLayers) {
+        this.profileLayers = profileLayers;
+        return this;
+    }
+
+    // every interval epochs the mean squared error on the validation set is measured and the best weights are kept
+    // in memory; training stops after patience measurements without improvement and ends with the best weights
+    public BackPropagationTrainer validation(Dataset validationDataset, int interval, int patience) {
+        assert interval > 0 && patience > 0;
+        this.validationDataset = validationDataset;
+        this.validationInterval = interval;
+        this.patience = patience;
+        return this;
+    }
+
+    public BackPropagationTrainer validation(List<Pair<double[]>> validationDataset, int interval, int patience) {
+        return validation(Dataset.of(validationDataset), interval, patience);
+    }
+
+    // saved in the background every checkpoints' interval epochs, see Checkpoints. The network's layers need a plain
+    // java.util.Random, the only kind whose state a checkpoint can save
+    public BackPropagationTrainer checkpoints(Checkpoints checkpoints) {
+        Checkpoints.checkRandoms(network);
+        this.checkpoints = checkpoints;
+        return this;
+    }
+
+    // fine-tuning after Pruner: pruned weights get no corrections and stay at zero
+    public BackPropagationTrainer mask(PruningMask mask) {
+        this.mask = mask;
+        return this;
+    }
+
+    // data-parallel training over processes: each step every rank trains on its share of a batch of batchSize * world
+    // size examples and the gradient sums are added up over the ring. Every rank needs the same dataset and the same
+    // trainer settings; rank 0's weights, optimizer state and resumed epoch are sent to the others before training
+    // and only rank 0 writes checkpoints
+    public BackPropagationTrainer distributed(RingAllReduce ring) {
+        this.ring = ring;
+        return this;
+    }
+
+    // loads the newest checkpoint into the network and the optimizer, the next train continues from its epoch.
+    // With parallelism 1 the continued run is identical to one that was never interrupted.
+    // Distributed runs resume on rank 0 only
+    public BackPropagationTrainer resume() throws IOException {
+        assert checkpoints != null;
+        this.resumedEpochs = checkpoints.restore(network, optimizer);
+        return this;
+    }
+
+    public long train(List<Pair<double[]>> trainingDataset, double[] minAllowedError, long maxIterations) {
+        return train(Dataset.of(trainingDataset), minAllowedError, maxIterations);
+    }
+
+    public long train(Dataset trainingDataset, double[] minAllowedError, long maxIterations) {
+        assert minAllowedError.length == network.getOutputLayer().getSize();
+        assert trainingDataset.getInputSize() == network.getInputLayer().getSize() && trainingDataset.getTargetSize() == minAllowedError.length;
+        // the permutation is the only per-example state on the heap, 4 bytes a sample and only when shuffling
+        int[] order = shuffle ? new int[trainingDataset.size()] : null;
+        Random random = network.getInputLayer().getRandom();
+        boolean profiling = listener != null && profileLayers;
+        int layersCount = network.getHiddenLayers().length + 2;
+        updateNanos = profiling ? new AtomicLongArray(layersCount) : null;
+        Worker[] workers = new Worker[parallelism];
+        for (int i = 0; i < workers.length; i++) workers[i] = new Worker(listener != null, profiling);
+        ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        Snapshot best = validationDataset != null ? new Snapshot() : null;
+        boolean coordinator = ring == null || ring.getRank() == 0;
+        int step = ring != null ? batchSize * ring.getWorldSize() : batchSize;
+        // distributed: every rank shuffles with a seed drawn by rank 0, so all of them see the same order
+        Random shuffler = ring != null ? new Random() : random;
+        double[] seed = new double[2];
+        double bestError = Double.POSITIVE_INFINITY, validationError = Double.NaN;
+        int stale = 0;
+        try {
+            if (ring != null) synchronize(workers[0]);
+            long iterations = resumedEpochs;
+            resumedEpochs = 0;
+            for (; iterations < maxIterations; iterations++) {
+                long epochStart = listener != null ? System.nanoTime() : 0;
+                for (Worker worker : workers) worker.reset();
+                if (shuffle) {
+                    if (ring != null) {
+                        seed[0] = random.nextInt();
+                        seed[1] = random.nextInt();
+                        broadcast(seed);
+                        shuffler.setSeed((long) seed[0] << 32 ^ (long) seed[1] & 0xFFFFFFFFL);
+                    }
+                    // from the identity each epoch, so the order depends only on the random's state, which checkpoints keep
+                    for (int i = 0; i < order.length; i++) order[i] = i;
+                    for (int i = order.length - 1; i > 0; i--) {
+                        int j = shuffler.nextInt(i + 1), swapped = order[i];
+                        order[i] = order[j];
+                        order[j] = swapped;
+                    }
+                }
+                for (int from = 0; from < trainingDataset.size(); from += step) {
+                    int to = Math.min(trainingDataset.size(), from + step);
+                    if (ring == null) accumulate(pool, workers, trainingDataset, order, from, to);
+                    else accumulate(pool, workers, trainingDataset, order, share(from, to, ring.getRank()), share(from, to, ring.getRank() + 1));
+                    optimizer.nextStep();
+                    apply(pool, workers, to - from);
+                }
+                double[] currentError = workers[0].currentError;
+                for (int i = 1; i < workers.length; i++) {
+                    for (int j = 0; j < currentError.length; j++) {
+                        currentError[j] = Math.max(currentError[j], workers[i].currentError[j]);
+                    }
+                }
+                if (ring != null) allReduce(currentError, true);
+                boolean stop = false;
+                validationError = Double.NaN;
+                if (best != null && (iterations + 1) % validationInterval == 0) {
+                    validationError = validate(pool, workers);
+                    if (validationError < bestError) {
+                        bestError = validationError;
+                        best.take();
+                        stale = 0;
+                    } else stop = ++stale >= patience;
+                }
+                if (listener != null) listener.epochEnd(metrics(workers, iterations, trainingDataset.size(), System.nanoTime() - epochStart, validationError));
+                if (checkpoints != null && coordinator && checkpoints.isDue(iterations + 1)) checkpoints.save(network, optimizer, iterations + 1);
+                if (stop) break;
+                boolean valid = true;
+                errorCheck: for (int i = 0; i < currentError.length; i++) {
+                    if (currentError[i] > minAllowedError[i]) {
+                        valid = false;
+                        break errorCheck;
+                    }
+                }
+                if (valid) break;
+            }
+            // weights after the last measurement may be better or worse than the best seen
+            if (best != null && bestError < Double.POSITIVE_INFINITY) {
+                double lastError = Double.isNaN(validationError) ? validate(pool, workers) : validationError;
+                if (lastError > bestError) best.restore();
+            }
+            if (checkpoints != null && coordinator) checkpoints.flush();
+            return iterations;
+        } finally {
+            if (pool != null) pool.shutdown();
+        }
+    }
+
+    // mean squared error over every output of every validation sample, chunks summed in worker order
+    // distributed: every rank measures its share and the sums are added up
+    private double validate(ForkJoinPool pool, Worker[] workers) {
+        int size = validationDataset.size();
+        int from = ring != null ? share(0, size, ring.getRank()) : 0, to = ring != null ? share(0, size, ring.getRank() + 1) : size;
+        if (pool == null || to - from < 2) {
+            workers[0].validate(validationDataset, from, to);
+            for (int i = 1; i < workers.length; i++) workers[i].squaredError = 0;
+        } else {
+            int chunk = (to - from + workers.length - 1) / workers.length;
+            List<Callable<Void>> tasks = new ArrayList<>(workers.length);
+            for (int i = 0; i < workers.length; i++) {
+                Worker worker = workers[i];
+                int chunkFrom = Math.min(to, from + i * chunk), chunkTo = Math.min(to, chunkFrom + chunk);
+                tasks.add(() -> {
+                    worker.validate(validationDataset, chunkFrom, chunkTo);
+                    return null;
+                });
+            }
+            invokeAll(pool, tasks);
+        }
+        double[] squares = new double[1];
+        for (Worker worker : workers) squares[0] += worker.squaredError;
+        if (ring != null) allReduce(squares, false);
+        return squares[0] / Math.max(1, (long) size * validationDataset.getTargetSize());
+    }
+
+    private EpochMetrics metrics(Worker[] workers, long epoch, long samples, long elapsedNanos, double validationError) {
+        double[] meanErrors = new double[workers[0].errorSums.length];
+        for (Worker worker : workers) {
+            for (int j = 0; j < meanErrors.length; j++) meanErrors[j] += worker.errorSums[j];
+        }
+        if (ring != null) allReduce(meanErrors, false);
+        for (int j = 0; j < meanErrors.length; j++) meanErrors[j] /= Math.max(1, samples);
+        long[] forward = null, backward = null, update = null;
+        if (updateNanos != null) {
+            forward = new long[updateNanos.length()];
+            backward = new long[forward.length];
+            update = new long[forward.length];
+            for (int d = 0; d < forward.length; d++) {
+                update[d] = updateNanos.getAndSet(d, 0);
+                for (Worker worker : workers) {
+                    forward[d] += worker.forwardNanos[d];
+                    backward[d] += worker.backwardNanos[d];
+                }
+            }
+        }
+        return new EpochMetrics(epoch, samples, elapsedNanos, workers[0].currentError.clone(), meanErrors, validationError, forward, backward, update);
+    }
+
+    private void accumulate(ForkJoinPool pool, Worker[] workers, Dataset dataset, int[] order, int from, int to) {
+        if (pool == null || to - from < 2) {
+            workers[0].accumulate(dataset, order, from, to);
+            return;
+        }
+        int chunk = (to - from + workers.length - 1) / workers.length;
+        List<Callable<Void>> tasks = new ArrayList<>(workers.length);
+        for (int i = 0; i < workers.length && from + i * chunk < to; i++) {
+            Worker worker = workers[i];
+            int chunkFrom = from + i * chunk, chunkTo = Math.min(to, chunkFrom + chunk);
+            tasks.add(() -> {
+                worker.accumulate(dataset, order, chunkFrom, chunkTo);
+                return null;
+            });
+        }
+        invokeAll(pool, tasks);
+    }
+
+    // sums every worker's buffers in a fixed order, hands them to the optimizer and clears them, striped over the pool.
+    // Distributed: the local sums are added up over the ring in one flat vector before any update
+    private void apply(ForkJoinPool pool, Worker[] workers, int batch) {
+        if (ring == null) {
+            forEachStripe(pool, (layer, from, to, withBiases) -> applyStripe(workers, layer, batch, from, to, withBiases, true, true));
+            return;
+        }
+        forEachStripe(pool, (layer, from, to, withBiases) -> applyStripe(workers, layer, batch, from, to, withBiases, true, false));
+        List<double[]> buffers = workers[0].buffers;
+        for (int i = 0, offset = 0; i < buffers.size(); offset += buffers.get(i++).length) {
+            System.arraycopy(buffers.get(i), 0, flatGradients, offset, buffers.get(i).length);
+        }
+        allReduce(flatGradients, false);
+        for (int i = 0, offset = 0; i < buffers.size(); offset += buffers.get(i++).length) {
+            System.arraycopy(flatGradients, offset, buffers.get(i), 0, buffers.get(i).length);
+        }
+        forEachStripe(pool, (layer, from, to, withBiases) -> applyStripe(workers, layer, batch, from, to, withBiases, false, true));
+    }
+
+    private void forEachStripe(ForkJoinPool pool, Stripe stripe) {
+        NeuronLayer inputLayer = network.getInputLayer();
+        if (pool == null) {
+            for (NeuronLayer layer = inputLayer.getOutput(); layer != null; layer = layer.getOutput()) stripe.run(layer, 0, layer.getWeights().length(), true);
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (NeuronLayer layer = inputLayer.getOutput(); layer != null; layer = layer.getOutput()) {
+            NeuronLayer trained = layer;
+            int length = layer.getWeights().length(), size = (length + parallelism - 1) / parallelism;
+            for (int from = 0; from < length; from += size) {
+                int stripeFrom = from, stripeTo = Math.min(length, from + size);
+                tasks.add(() -> {
+                    stripe.run(trained, stripeFrom, stripeTo, stripeFrom == 0);
+                    return null;
+                });
+            }
+        }
+        invokeAll(pool, tasks);
+    }
+
+    private void applyStripe(Worker[] workers, NeuronLayer layer, int batch, int from, int to, boolean withBiases, boolean combine, boolean update) {
+        long start = updateNanos != null ? System.nanoTime() : 0;
+        if (combine) {
+            combine(workers, layer, false, from, to);
+            if (withBiases) combine(workers, layer, true, 0, layer.getSize());
+        }
+        if (update) {
+            update(workers[0], layer, layer.getWeights(), false, batch, from, to);
+            if (withBiases) update(workers[0], layer, layer.getBiases(), true, batch, 0, layer.getSize());
+        }
+        if (updateNanos != null) updateNanos.addAndGet(layer.getDepth(), System.nanoTime() - start);
+    }
+
+    // adds every other worker's corrections to the first one's and clears them
+    private static void combine(Worker[] workers, NeuronLayer layer, boolean biases, int from, int to) {
+        double[] first = biases ? workers[0].gradients.getBiases(layer) : workers[0].gradients.getWeights(layer);
+        for (int w = 1; w < workers.length; w++) {
+            double[] other = biases ? workers[w].gradients.getBiases(layer) : workers[w].gradients.getWeights(layer);
+            for (int i = from; i < to; i++) {
+                first[i] += other[i];
+                other[i] = 0;
+            }
+        }
+    }
+
+    private void update(Worker first, NeuronLayer layer, Storage target, boolean biases, int batch, int from, int to) {
+        double[] corrections = biases ? first.gradients.getBiases(layer) : first.gradients.getWeights(layer);
+        if (mask != null && !biases) mask.clear(layer, corrections, from, to);
+        optimizer.update(layer, biases, target, corrections, learningSpeed, batch, from, to);
+        // optimizer state from before pruning could still move them
+        if (mask != null && !biases) mask.clear(layer, target, from, to);
+        Arrays.fill(corrections, from, to, 0d);
+        layer.modified();
+    }
+
+    // rank 0's epoch count, weights and optimizer state go to every rank, the first worker's buffers carry the weights
+    private void synchronize(Worker first) {
+        double[] epochs = { resumedEpochs };
+        broadcast(epochs);
+        resumedEpochs = (long) epochs[0];
+        for (NeuronLayer layer = network.getInputLayer().getOutput(); layer != null; layer = layer.getOutput()) {
+            for (Storage storage : List.of(layer.getWeights(), layer.getBiases())) {
+                double[] values = storage == layer.getWeights() ? first.gradients.getWeights(layer) : first.gradients.getBiases(layer);
+                storage.copyTo(values);
+                broadcast(values);
+                storage.copyFrom(values);
+                Arrays.fill(values, 0d);
+            }
+            layer.modified();
+        }
+        for (double[] state : optimizer.state()) broadcast(state);
+        int length = 0;
+        for (double[] buffer : first.buffers) length += buffer.length;
+        flatGradients = new double[length];
+    }
+
+    private void broadcast(double[] values) {
+        try {
+            ring.broadcast(values);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Broadcast from rank 0 failed", e);
+        }
+    }
+
+    private void allReduce(double[] values, boolean max) {
+        try {
+            if (max) ring.max(values);
+            else ring.sum(values);
+        } catch (IOException e) {
+            throw new UncheckedIOException("All-reduce failed", e);
+        }
+    }
+
+    // the part of [from, to) that the given rank trains on, rank world size gives to
+    private int share(int from, int to, int rank) {
+        return from + (int) ((long) (to - from) * rank / ring.getWorldSize());
+    }
+
+    static void invokeAll(ForkJoinPool pool, List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Training interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Training worker failed", e.getCause());
+        }
+    }
+
+    // one sample: forward pass, errors from the output back to the first hidden layer, corrections added to gradients
+    static void backPropagate(NeuralNetwork network, double[] clearInput, double[] targetOutput, Workspace workspace, Gradients gradients, double[] currentError) {
+        backPropagate(network, clearInput, targetOutput, workspace, gradients, currentError, null, null, null);
+    }
+
+    // errorSums, when given, adds up absolute errors per output; forwardNanos and backwardNanos, when given, time every layer
+    static void backPropagate(NeuralNetwork network, double[] clearInput, double[] targetOutput, Workspace workspace, Gradients gradients, double[] currentError,
+                              double[] errorSums, long[] forwardNanos, long[] backwardNanos) {
+        NeuronLayer inputLayer = network.getInputLayer(), outputLayer = network.getOutputLayer();
+        double[] networkAnswer = forwardNanos != null ? timedOutput(inputLayer, clearInput, workspace, forwardNanos) : network.output(clearInput, workspace);
+        long start = backwardNanos != null ? System.nanoTime() : 0;
+        double[] errors = workspace.getErrors(outputLayer);
+        for (int j = 0; j < errors.length; j++) {
+            errors[j] = targetOutput[j] - networkAnswer[j];
+            currentError[j] = Math.max(currentError[j], Math.abs(errors[j]));
+        }
+        if (errorSums != null) {
+            for (int j = 0; j < errors.length; j++) errorSums[j] += Math.abs(errors[j]);
+        }
+        outputLayer.getActivation().scaleByDerivate(workspace.getRawSums(outputLayer), networkAnswer, errors, errors.length);
+        addCorrections(outputLayer, workspace, gradients, errors);
+        for (NeuronLayer layer = outputLayer.getInput(); layer != inputLayer; layer = layer.getInput()) {
+            if (backwardNanos != null) start = lap(backwardNanos, layer.getOutput().getDepth(), start);
+            NeuronLayer next = layer.getOutput();
+            double[] newErrors = workspace.getErrors(layer);
+            next.getWeights().gemvTransposed(next.getSize(), next.getInputsCount(), errors, newErrors);
+            layer.getActivation().scaleByDerivate(workspace.getRawSums(layer), workspace.getNormalizedSums(layer), newErrors, newErrors.length);
+            addCorrections(layer, workspace, gradients, newErrors);
+            errors = newErrors;
+        }
+        if (backwardNanos != null) lap(backwardNanos, inputLayer.getOutput().getDepth(), start);
+    }
+
+    // same as NeuralNetwork.output for one sample, with a clock read after every layer
+    private static double[] timedOutput(NeuronLayer inputLayer, double[] inputs, Workspace workspace, long[] forwardNanos) {
+        long start = System.nanoTime();
+        for (NeuronLayer layer = inputLayer; layer != null; layer = layer.getOutput()) {
+            double[] result = workspace.getNormalizedSums(layer);
+            layer.output(inputs, 1, workspace.getRawSums(layer), result);
+            inputs = result;
+            start = lap(forwardNanos, layer.getDepth(), start);
+        }
+        return inputs;
+    }
+
+    private static long lap(long[] nanos, int depth, long start) {
+        long now = System.nanoTime();
+        nanos[depth] += now - start;
+        return now;
+    }
+
+    private static void addCorrections(NeuronLayer layer, Workspace workspace, Gradients gradients, double[] errors) {
+        double[] inputs = workspace.getNormalizedSums(layer.getInput());
+        double[] weightCorrections = gradients.getWeights(layer), biasCorrections = gradients.getBiases(layer);
+        int inputsCount = layer.getInputsCount();
+        for (int j = 0, offset = 0; j < errors.length; j++, offset += inputsCount) {
+            Kernels.axpy(errors[j], inputs, 0, weightCorrections, offset, inputsCount);
+            biasCorrections[j] += errors[j];
+        }
+    }
+
+    private interface Stripe {
+
+        void run(NeuronLayer layer, int from, int to, boolean withBiases);
+
+    }
+
+    // flat copies of every trained layer's weights and biases
+    private class Snapshot {
+
+        private final double[][] weights = new double[network.getHiddenLayers().length + 2][], biases = new double[weights.length][];
+
+        Snapshot() {
+            for (NeuronLayer layer = network.getInputLayer().getOutput(); layer != null; layer = layer.getOutput()) {
+                weights[layer.getDepth()] = new double[layer.getWeights().length()];
+                biases[layer.getDepth()] = new double[layer.getBiases().length()];
+            }
+        }
+
+        void take() {
+            for (NeuronLayer layer = network.getInputLayer().getOutput(); layer != null; layer = layer.getOutput()) {
+                layer.getWeights().copyTo(weights[layer.getDepth()]);
+                layer.getBiases().copyTo(biases[layer.getDepth()]);
+            }
+        }
+
+        void restore() {
+            for (NeuronLayer layer = network.getInputLayer().getOutput(); layer != null; layer = layer.getOutput()) {
+                layer.getWeights().copyFrom(weights[layer.getDepth()]);
+                layer.getBiases().copyFrom(biases[layer.getDepth()]);
+                layer.modified();
+            }
+        }
+
+    }
+
+    private class Worker {
+
+        private final Workspace workspace = network.newWorkspace();
+        private final Gradients gradients = new Gradients(network);
+        private final List<double[]> buffers = gradients.buffers();
+        private final double[] currentError = new double[network.getOutputLayer().getSize()];
+        private final double[] input = new double[network.getInputLayer().getSize()], target = new double[network.getOutputLayer().getSize()];
+        private double squaredError;
+        // null unless a listener wants them
+        private final double[] errorSums;
+        private final long[] forwardNanos, backwardNanos;
+
+        Worker(boolean metrics, boolean profiling) {
+            int layersCount = network.getHiddenLayers().length + 2;
+            this.errorSums = metrics ? new double[currentError.length] : null;
+            this.forwardNanos = profiling ? new long[layersCount] : null;
+            this.backwardNanos = profiling ? new long[layersCount] : null;
+        }
+
+        void reset() {
+            Arrays.fill(currentError, 0d);
+            if (errorSums != null) Arrays.fill(errorSums, 0d);
+            if (forwardNanos != null) {
+                Arrays.fill(forwardNanos, 0);
+                Arrays.fill(backwardNanos, 0);
+            }
+        }
+
+        void validate(Dataset dataset, int from, int to) {
+            squaredError = 0;
+            for (int i = from; i < to; i++) {
+                dataset.copyInput(i, input);
+                dataset.copyTarget(i, target);
+                double[] answer = network.output(input, workspace);
+                for (int j = 0; j < answer.length; j++) squaredError += (target[j] - answer[j]) * (target[j] - answer[j]);
+            }
+        }
+
+        void accumulate(Dataset dataset, int[] order, int from, int to) {
+            for (int i = from; i < to; i++) {
+                int index = order != null ? order[i] : i;
+                dataset.copyInput(index, input);
+                dataset.copyTarget(index, target);
+                backPropagate(network, input, target, workspace, gradients, currentError, errorSums, forwardNanos, backwardNanos);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,37 @@
+package me.hivaze.neural;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Doubles living outside the java heap: a memory-mapped model file or a direct buffer
+final class BufferStorage extends Storage {
+
+    private final ByteBuffer values;
+    private final int length;
+
+    BufferStorage(ByteBuffer buffer) {
+        this.values = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.length = buffer.capacity() / Double.BYTES;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public double get(int index) {
+        return values.getDouble(index << 3);
+    }
+
+    @Override
+    public void set(int index, double value) {
+        values.putDouble(index << 3, value);
+    }
+
+    @Override
+    public double dot(int offset, double[] inputs, int inputsOffset, int length) {
+        return Kernels.dotDoubles(values, offset, inputs, inputsOffset, length);
+    }
+
+}
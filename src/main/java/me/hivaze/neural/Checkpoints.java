@@ -0,0 +1,385 @@
+package me.hivaze.neural;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Periodic training checkpoints in a directory, one epoch-<n> subdirectory each:
+//   model.dnn  the weights, an ordinary .dnn model
+//   state.bin  magic, version, epoch, the state of every layer's Random, then the optimizer's state arrays
+// The training thread only copies weights and state into a spare snapshot, a background thread writes it
+// into a temporary directory, forces it to disk and renames it into place, so a crash leaves either the
+// previous checkpoint or the new one. A checkpoint of the same epoch already there is renamed aside to
+// .epoch-<n>.old first and stands in for it until the new one is in place. At most two writes are in flight,
+// a third save waits for the oldest. Training only loads a checkpoint when asked to, with
+// BackPropagationTrainer.resume() or the resume flag of NeuralNetwork.mutationTrain
+public class Checkpoints {
+
+    static final int MAGIC = 0x54504B43;
+    static final int VERSION = 1;
+    private static final Pattern NAME = Pattern.compile("epoch-(\\d+)"), ASIDE = Pattern.compile("\\.(epoch-\\d+)\\.old");
+    private static final int IN_FLIGHT = 2;
+
+    // java.util.Random: seed = (seed * MULTIPLIER + ADDEND) mod 2^48, nextInt() returns the top 32 bits
+    private static final long MULTIPLIER = 0x5DEECE66DL, ADDEND = 0xBL, MASK = (1L << 48) - 1;
+    private static final long INVERSE;
+
+    static {
+        // Newton's iteration doubles the correct low bits of the inverse of an odd number every step
+        long inverse = MULTIPLIER;
+        for (int i = 0; i < 6; i++) inverse *= 2 - MULTIPLIER * inverse;
+        INVERSE = inverse & MASK;
+    }
+
+    private final Path directory;
+    private int interval = 100, retain = 3;
+    private final ThreadPoolExecutor writer;
+    private final Queue<Future<?>> pending = new ArrayDeque<>();
+    private final Queue<Snapshot> spares = new ConcurrentLinkedQueue<>();
+
+    public Checkpoints(Path directory) {
+        this.directory = directory;
+        // a single writer thread that ends when idle, so finished runs don't leave one behind
+        this.writer = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.allowCoreThreadTimeOut(true);
+    }
+
+    // a checkpoint after every interval epochs
+    public Checkpoints interval(int interval) {
+        assert interval > 0;
+        this.interval = interval;
+        return this;
+    }
+
+    // newest checkpoints kept, older ones are deleted once a new one is in place
+    public Checkpoints retain(int retain) {
+        assert retain > 0;
+        this.retain = retain;
+        return this;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // newest complete checkpoint, null when there is none
+    public Path latest() throws IOException {
+        List<Path> checkpoints = list();
+        return checkpoints.isEmpty() ? null : checkpoints.get(checkpoints.size() - 1);
+    }
+
+    // loads the newest checkpoint into the network, its Randoms and the optimizer, returns the epochs it had done
+    public long restore(NeuralNetwork network, Optimizer optimizer) throws IOException {
+        Path checkpoint = latest();
+        if (checkpoint == null) throw new NoSuchFileException(directory.toString(), null, "no checkpoint to resume from");
+        NeuralNetwork saved = new NeuralNetwork(checkpoint.resolve("model.dnn"));
+        for (NeuronLayer layer = network.getInputLayer(), from = saved.getInputLayer(); layer != null || from != null; layer = layer.getOutput(), from = from.getOutput()) {
+            if (layer == null || from == null || layer.getSize() != from.getSize() || layer.getInputsCount() != from.getInputsCount()) {
+                throw new IOException("Checkpoint doesn't match the network's layers: " + checkpoint);
+            }
+            double[] values = new double[layer.getWeights().length()];
+            from.getWeights().copyTo(values);
+            layer.getWeights().copyFrom(values);
+            values = new double[layer.getBiases().length()];
+            from.getBiases().copyTo(values);
+            layer.getBiases().copyFrom(values);
+            layer.modified();
+        }
+        ByteBuffer state = ByteBuffer.wrap(Files.readAllBytes(checkpoint.resolve("state.bin"))).order(ByteOrder.LITTLE_ENDIAN);
+        if (state.getInt() != MAGIC || state.getInt() != VERSION) throw new IOException("Not a checkpoint state file: " + checkpoint);
+        long epoch = state.getLong();
+        int randoms = state.getInt();
+        for (NeuronLayer layer = network.getInputLayer(); layer != null && randoms-- > 0; layer = layer.getOutput()) {
+            long seed = state.getLong();
+            // -1 from checkpoints of a Random that couldn't be saved
+            if (seed >= 0) layer.getRandom().setSeed(seed ^ MULTIPLIER);
+        }
+        List<double[]> arrays = optimizer != null ? optimizer.state() : List.of();
+        if (state.getInt() != arrays.size()) throw new IOException("Checkpoint doesn't match the optimizer's state: " + checkpoint);
+        for (double[] array : arrays) {
+            if (state.getInt() != array.length) throw new IOException("Checkpoint doesn't match the optimizer's state: " + checkpoint);
+            state.asDoubleBuffer().get(array);
+            state.position(state.position() + array.length * Double.BYTES);
+        }
+        return epoch;
+    }
+
+    boolean isDue(long epochs) {
+        return epochs % interval == 0;
+    }
+
+    // copies everything on the calling thread, writing happens in the background
+    void save(NeuralNetwork network, Optimizer optimizer, long epochs) {
+        checkRandoms(network);
+        while (pending.size() >= IN_FLIGHT) await(pending.poll());
+        Snapshot snapshot = spares.poll();
+        if (snapshot == null || !snapshot.fits(network, optimizer)) snapshot = new Snapshot(network, optimizer);
+        snapshot.take(network, optimizer, epochs);
+        Snapshot taken = snapshot;
+        pending.add(writer.submit(() -> {
+            write(taken, network);
+            spares.add(taken);
+            return null;
+        }));
+    }
+
+    // waits until every checkpoint saved so far is on disk
+    public void flush() {
+        while (!pending.isEmpty()) await(pending.poll());
+    }
+
+    private static void await(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a checkpoint", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw new UncheckedIOException("Checkpoint failed", (IOException) e.getCause());
+            throw new IllegalStateException("Checkpoint failed", e.getCause());
+        }
+    }
+
+    private void write(Snapshot snapshot, NeuralNetwork network) throws IOException {
+        Files.createDirectories(directory);
+        recover();
+        String name = String.format("epoch-%012d", snapshot.epochs);
+        Path temporary = directory.resolve("." + name + ".tmp"), target = directory.resolve(name), aside = directory.resolve("." + name + ".old");
+        if (Files.exists(temporary)) delete(temporary);
+        Files.createDirectory(temporary);
+        Path model = temporary.resolve("model.dnn");
+        ModelFormat.write(snapshot.toNetwork(network), model);
+        force(model);
+        ByteBuffer state = snapshot.state();
+        try (FileChannel channel = FileChannel.open(temporary.resolve("state.bin"), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (state.hasRemaining()) channel.write(state);
+            channel.force(true);
+        }
+        // a directory can't be replaced in one rename
+        if (Files.exists(target)) Files.move(target, aside, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(directory);
+        if (Files.exists(aside)) delete(aside);
+        List<Path> checkpoints = list();
+        for (int i = 0; i < checkpoints.size() - retain; i++) delete(checkpoints.get(i));
+    }
+
+    // complete checkpoints, oldest first; one renamed aside counts while its replacement isn't in place
+    private List<Path> list() throws IOException {
+        if (!Files.isDirectory(directory)) return List.of();
+        try (Stream<Path> children = Files.list(directory)) {
+            return children.filter(Checkpoints::isCheckpoint)
+                    .sorted(Comparator.comparingLong(Checkpoints::epochOf))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static boolean isCheckpoint(Path child) {
+        if (!Files.isDirectory(child)) return false;
+        Path replaced = replaced(child);
+        return replaced != null ? !Files.isDirectory(replaced) : NAME.matcher(child.getFileName().toString()).matches();
+    }
+
+    // puts back checkpoints a crash left renamed aside, or drops them when their replacement made it
+    private void recover() throws IOException {
+        List<Path> asides;
+        try (Stream<Path> children = Files.list(directory)) {
+            asides = children.filter(child -> replaced(child) != null).collect(Collectors.toList());
+        }
+        for (Path aside : asides) {
+            if (Files.isDirectory(replaced(aside))) delete(aside);
+            else Files.move(aside, replaced(aside), StandardCopyOption.ATOMIC_MOVE);
+        }
+        if (!asides.isEmpty()) forceDirectory(directory);
+    }
+
+    // the checkpoint an aside one stands for, null for anything else
+    private static Path replaced(Path path) {
+        Matcher matcher = ASIDE.matcher(path.getFileName().toString());
+        return matcher.matches() ? path.resolveSibling(matcher.group(1)) : null;
+    }
+
+    private static long epochOf(Path checkpoint) {
+        Path replaced = replaced(checkpoint);
+        Matcher matcher = NAME.matcher((replaced != null ? replaced : checkpoint).getFileName().toString());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    private static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    // makes renames within the directory durable; some platforms can't open directories, there it's skipped
+    private static void forceDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    private static void delete(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) Files.deleteIfExists(file);
+        }
+    }
+
+    // subclasses may not use the java.util.Random generator, a resumed run couldn't continue their sequence
+    static void checkRandoms(NeuralNetwork network) {
+        for (NeuronLayer layer = network.getInputLayer(); layer != null; layer = layer.getOutput()) {
+            Random random = layer.getRandom();
+            if (random == null || random.getClass() != Random.class) {
+                throw new IllegalArgumentException("Checkpoints can only save a java.util.Random, layer " + layer.getDepth() + " has "
+                        + (random == null ? "none" : random.getClass().getName()));
+            }
+        }
+    }
+
+    // Internal 48-bit state of a java.util.Random, which keeps it private. Three draws from a serialized copy pin
+    // it down: the first gives the top 32 bits after one step, the 16 low bits are searched and the state is
+    // stepped back. The Random itself isn't touched, a pending nextGaussian value stays but isn't saved
+    static long seedOf(Random random) {
+        Random copy = copyOf(random);
+        int first = copy.nextInt(), second = copy.nextInt(), third = copy.nextInt();
+        for (long low = 0; low < 1 << 16; low++) {
+            long seed = ((long) first << 16 | low) & MASK, next = (seed * MULTIPLIER + ADDEND) & MASK;
+            if ((int) (next >>> 16) != second || (int) (((next * MULTIPLIER + ADDEND) & MASK) >>> 16) != third) continue;
+            return ((seed - ADDEND) * INVERSE) & MASK;
+        }
+        throw new IllegalStateException("Random doesn't follow the java.util.Random generator");
+    }
+
+    private static Random copyOf(Random random) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+                output.writeObject(random);
+            }
+            try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                return (Random) input.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Can't copy the Random", e);
+        }
+    }
+
+    // weights, Random states and optimizer arrays of one epoch, reused once written
+    private static class Snapshot {
+
+        private final double[][] weights, biases;
+        private final long[] seeds;
+        private final double[][] optimizerState;
+        private long epochs;
+
+        Snapshot(NeuralNetwork network, Optimizer optimizer) {
+            int layersCount = network.getHiddenLayers().length + 2;
+            this.weights = new double[layersCount][];
+            this.biases = new double[layersCount][];
+            this.seeds = new long[layersCount];
+            for (NeuronLayer layer = network.getInputLayer(); layer != null; layer = layer.getOutput()) {
+                weights[layer.getDepth()] = new double[layer.getWeights().length()];
+                biases[layer.getDepth()] = new double[layer.getBiases().length()];
+            }
+            List<double[]> state = optimizer.state();
+            this.optimizerState = new double[state.size()][];
+            for (int i = 0; i < optimizerState.length; i++) optimizerState[i] = new double[state.get(i).length];
+        }
+
+        boolean fits(NeuralNetwork network, Optimizer optimizer) {
+            if (weights.length != network.getHiddenLayers().length + 2) return false;
+            for (NeuronLayer layer = network.getInputLayer(); layer != null; layer = layer.getOutput()) {
+                if (weights[layer.getDepth()].length != layer.getWeights().length()) return false;
+            }
+            List<double[]> state = optimizer.state();
+            if (state.size() != optimizerState.length) return false;
+            for (int i = 0; i < optimizerState.length; i++) {
+                if (state.get(i).length != optimizerState[i].length) return false;
+            }
+            return true;
+        }
+
+        void take(NeuralNetwork network, Optimizer optimizer, long epochs) {
+            this.epochs = epochs;
+            // layers usually share one Random, its state is searched once
+            Map<Random, Long> found = new IdentityHashMap<>();
+            for (NeuronLayer layer = network.getInputLayer(); layer != null; layer = layer.getOutput()) {
+                layer.getWeights().copyTo(weights[layer.getDepth()]);
+                layer.getBiases().copyTo(biases[layer.getDepth()]);
+                seeds[layer.getDepth()] = found.computeIfAbsent(layer.getRandom(), Checkpoints::seedOf);
+            }
+            List<double[]> state = optimizer.state();
+            for (int i = 0; i < optimizerState.length; i++) System.arraycopy(state.get(i), 0, optimizerState[i], 0, optimizerState[i].length);
+        }
+
+        // heap network of the same shape and precision, only to be written out
+        NeuralNetwork toNetwork(NeuralNetwork shape) {
+            List<NeuronLayer> layers = new ArrayList<>();
+            NeuronLayer previous = null;
+            for (NeuronLayer layer = shape.getInputLayer(); layer != null; layer = layer.getOutput()) {
+                Storage layerWeights = Storage.allocate(weights[layer.getDepth()].length, shape.getPrecision());
+                Storage layerBiases = Storage.allocate(biases[layer.getDepth()].length, shape.getPrecision());
+                layerWeights.copyFrom(weights[layer.getDepth()]);
+                layerBiases.copyFrom(biases[layer.getDepth()]);
+                previous = new NeuronLayer(layer.getSize(), layer.getInputsCount(), layerWeights, layerBiases, previous, null, null, layer.getActivation());
+                layers.add(previous);
+            }
+            return new NeuralNetwork(layers.toArray(new NeuronLayer[0]), shape.getInitializationMethod(), shape.getPrecision());
+        }
+
+        ByteBuffer state() {
+            int bytes = 2 * Integer.BYTES + Long.BYTES + Integer.BYTES + seeds.length * Long.BYTES + Integer.BYTES;
+            for (double[] array : optimizerState) bytes += Integer.BYTES + array.length * Double.BYTES;
+            ByteBuffer state = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            state.putInt(MAGIC).putInt(VERSION).putLong(epochs).putInt(seeds.length);
+            for (long seed : seeds) state.putLong(seed);
+            state.putInt(optimizerState.length);
+            for (double[] array : optimizerState) {
+                state.putInt(array.length);
+                state.asDoubleBuffer().put(array);
+                state.position(state.position() + array.length * Double.BYTES);
+            }
+            return state.flip();
+        }
+
+    }
+
+}
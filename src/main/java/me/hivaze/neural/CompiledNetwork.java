@@ -0,0 +1,30 @@
+package me.hivaze.neural;
+
+// Inference-only form of a network made by NeuralNetwork.compile(): a class generated for its exact topology.
+// Weights are copied when compiling, so later training doesn't reach it, compile again afterwards
+public abstract class CompiledNetwork {
+
+    // frozen copy of the network, layers too big to unroll run through it
+    final NeuronLayer[] layers;
+
+    CompiledNetwork(NeuronLayer[] layers) {
+        this.layers = layers;
+    }
+
+    // safe to call from many threads at once, the result is a new array
+    public abstract double[] output(double[] inputs);
+
+    public int getInputSize() {
+        return layers[0].getSize();
+    }
+
+    public int getOutputSize() {
+        return layers[layers.length - 1].getSize();
+    }
+
+    // called by the generated code
+    final void layer(int depth, double[] inputs, double[] result) {
+        layers[depth].output(inputs, result, result);
+    }
+
+}
@@ -0,0 +1,78 @@
+package me.hivaze.neural;
+
+import me.hivaze.utils.FastCSV;
+import me.hivaze.utils.Pair;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+// Training examples as fixed-size primitive records: the input followed by the target of every sample.
+// Backed by one packed array or by a memory-mapped .dset file, so datasets larger than the heap can be trained on
+public abstract class Dataset {
+
+    private final int inputSize, targetSize;
+
+    Dataset(int inputSize, int targetSize) {
+        this.inputSize = inputSize;
+        this.targetSize = targetSize;
+    }
+
+    public static Dataset of(List<Pair<double[]>> examples) {
+        assert !examples.isEmpty();
+        int inputSize = examples.get(0).getFirst().length, targetSize = examples.get(0).getSecond().length;
+        double[] records = new double[examples.size() * (inputSize + targetSize)];
+        for (int i = 0, offset = 0; i < examples.size(); i++, offset += inputSize + targetSize) {
+            Pair<double[]> example = examples.get(i);
+            assert example.getFirst().length == inputSize && example.getSecond().length == targetSize;
+            System.arraycopy(example.getFirst(), 0, records, offset, inputSize);
+            System.arraycopy(example.getSecond(), 0, records, offset + inputSize, targetSize);
+        }
+        return new ArrayDataset(records, inputSize, targetSize);
+    }
+
+    // records stay in the file, see DatasetFormat
+    public static Dataset open(Path path) throws IOException {
+        return DatasetFormat.read(path);
+    }
+
+    // streams the file through FastCSV, the converter fills input and target from the cells of each row
+    public static long convertCsv(Path csv, Path destination, int inputSize, int targetSize, boolean skipHeader, RowConverter converter) throws IOException {
+        return DatasetFormat.convertCsv(csv, destination, inputSize, targetSize, skipHeader, converter);
+    }
+
+    public Dataset saveTo(Path path) throws IOException {
+        DatasetFormat.write(this, path);
+        return this;
+    }
+
+    public abstract int size();
+
+    // copies length values of record index starting at column into target
+    abstract void copy(int index, int column, double[] target, int offset, int length);
+
+    public void copyInput(int index, double[] target) {
+        copy(index, 0, target, 0, inputSize);
+    }
+
+    public void copyTarget(int index, double[] target) {
+        copy(index, inputSize, target, 0, targetSize);
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    public int getTargetSize() {
+        return targetSize;
+    }
+
+    public int getRecordSize() {
+        return inputSize + targetSize;
+    }
+
+    public interface RowConverter {
+        void convert(FastCSV row, double[] input, double[] target);
+    }
+
+}
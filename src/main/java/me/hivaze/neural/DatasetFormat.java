@@ -0,0 +1,132 @@
+package me.hivaze.neural;
+
+import me.hivaze.utils.FastCSV;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Binary .dset layout, everything little-endian:
+//   header   magic, version, records count (long), input size, target size
+//   records  input then target of every sample as doubles
+// Records are mapped read-only when opening, nothing is copied to the heap
+final class DatasetFormat {
+
+    static final int MAGIC = 0x54455344; // "DSET"
+    static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 24;
+    private static final int CHUNK_BYTES = 1 << 20;
+    private static final long MAP_BYTES = 1L << 30;
+
+    private DatasetFormat() {}
+
+    static void write(Dataset dataset, Path path) throws IOException {
+        try (Writer writer = new Writer(path, dataset.getInputSize(), dataset.getTargetSize())) {
+            double[] record = new double[dataset.getRecordSize()];
+            for (int i = 0; i < dataset.size(); i++) {
+                dataset.copy(i, 0, record, 0, record.length);
+                writer.append(record);
+            }
+            writer.commit();
+        }
+    }
+
+    static long convertCsv(Path csv, Path destination, int inputSize, int targetSize, boolean skipHeader, Dataset.RowConverter converter) throws IOException {
+        try (FastCSV reader = new FastCSV(csv); Writer writer = new Writer(destination, inputSize, targetSize)) {
+            double[] input = new double[inputSize], target = new double[targetSize], record = new double[inputSize + targetSize];
+            if (skipHeader) reader.nextRow();
+            while (reader.nextRow()) {
+                converter.convert(reader, input, target);
+                System.arraycopy(input, 0, record, 0, inputSize);
+                System.arraycopy(target, 0, record, inputSize, targetSize);
+                writer.append(record);
+            }
+            writer.commit();
+            return writer.records;
+        }
+    }
+
+    static Dataset read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) throw new IOException("Truncated .dset file: " + path);
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) throw new IOException("Not a .dset file: " + path);
+            int version = header.getInt();
+            if (version != VERSION) throw new IOException("Unsupported .dset version " + version + ": " + path);
+            long records = header.getLong();
+            int inputSize = header.getInt(), targetSize = header.getInt();
+            long recordBytes = (long) (inputSize + targetSize) * Double.BYTES;
+            if (records > Integer.MAX_VALUE || HEADER_BYTES + records * recordBytes > channel.size()) throw new IOException("Truncated .dset file: " + path);
+            int recordsPerChunk = (int) Math.max(1, MAP_BYTES / recordBytes);
+            DoubleBuffer[] chunks = new DoubleBuffer[(int) ((records + recordsPerChunk - 1) / recordsPerChunk)];
+            for (int c = 0; c < chunks.length; c++) {
+                long first = (long) c * recordsPerChunk, count = Math.min(recordsPerChunk, records - first);
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * recordBytes, count * recordBytes)
+                        .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            }
+            return new MappedDataset(chunks, recordsPerChunk, (int) records, inputSize, targetSize);
+        }
+    }
+
+    // streams records through a direct chunk into a file next to the destination, like ModelFormat.replace: commit
+    // patches the records count into the header and moves it over the destination, so datasets mapped from it keep
+    // reading the old file. Closing without a commit, after a converter or parse error, leaves the destination as it was
+    private static final class Writer implements AutoCloseable {
+
+        private final Path target, temporary;
+        private final FileChannel channel;
+        private final ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private long records;
+
+        Writer(Path path, int inputSize, int targetSize) throws IOException {
+            this.target = path.toAbsolutePath();
+            this.temporary = target.resolveSibling("." + target.getFileName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            chunk.putInt(MAGIC).putInt(VERSION).putLong(0).putInt(inputSize).putInt(targetSize);
+        }
+
+        void append(double[] record) throws IOException {
+            for (double value : record) {
+                if (!chunk.hasRemaining()) flush();
+                chunk.putDouble(value);
+            }
+            records++;
+        }
+
+        private void flush() throws IOException {
+            chunk.flip();
+            while (chunk.hasRemaining()) channel.write(chunk);
+            chunk.clear();
+        }
+
+        void commit() throws IOException {
+            flush();
+            ByteBuffer count = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(0, records);
+            while (count.hasRemaining()) channel.write(count, 8 + count.position());
+            channel.force(true);
+            channel.close();
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,84 @@
+package me.hivaze.neural;
+
+import java.util.Arrays;
+
+// Errors are absolute per output over the whole epoch. Layer timings are indexed by depth, summed over
+// all workers, and only collected when the trainer profiles layers
+public final class EpochMetrics {
+
+    private final long epoch, samples, elapsedNanos;
+    private final double[] maxErrors, meanErrors;
+    private final double validationError;
+    private final long[] forwardNanos, backwardNanos, updateNanos;
+
+    EpochMetrics(long epoch, long samples, long elapsedNanos, double[] maxErrors, double[] meanErrors, double validationError, long[] forwardNanos, long[] backwardNanos, long[] updateNanos) {
+        this.epoch = epoch;
+        this.samples = samples;
+        this.elapsedNanos = elapsedNanos;
+        this.maxErrors = maxErrors;
+        this.meanErrors = meanErrors;
+        this.validationError = validationError;
+        this.forwardNanos = forwardNanos;
+        this.backwardNanos = backwardNanos;
+        this.updateNanos = updateNanos;
+    }
+
+    // 0 for the first epoch
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getSamplesPerSecond() {
+        return samples * 1e9 / Math.max(1, elapsedNanos);
+    }
+
+    public double[] getMaxErrors() {
+        return maxErrors;
+    }
+
+    public double[] getMeanErrors() {
+        return meanErrors;
+    }
+
+    // mean squared error on the validation set, NaN for epochs where it wasn't measured
+    public double getValidationError() {
+        return validationError;
+    }
+
+    public boolean hasLayerTimings() {
+        return forwardNanos != null;
+    }
+
+    public long[] getForwardNanos() {
+        return forwardNanos;
+    }
+
+    public long[] getBackwardNanos() {
+        return backwardNanos;
+    }
+
+    public long[] getUpdateNanos() {
+        return updateNanos;
+    }
+
+    @Override
+    public String toString() {
+        String result = "EpochMetrics{" + "epoch=" + epoch + ", samplesPerSecond=" + Math.round(getSamplesPerSecond())
+                + ", maxErrors=" + Arrays.toString(maxErrors) + ", meanErrors=" + Arrays.toString(meanErrors);
+        if (!Double.isNaN(validationError)) result += ", validationError=" + validationError;
+        if (hasLayerTimings()) {
+            result += ", forwardNanos=" + Arrays.toString(forwardNanos) + ", backwardNanos=" + Arrays.toString(backwardNanos)
+                    + ", updateNanos=" + Arrays.toString(updateNanos);
+        }
+        return result + '}';
+    }
+
+}
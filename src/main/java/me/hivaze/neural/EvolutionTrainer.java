@@ -0,0 +1,255 @@
+package me.hivaze.neural;
+
+import me.hivaze.utils.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Neuroevolution over a population of candidate weight sets. Every generation all candidates are scored
+// in parallel, the best survive unchanged and the rest are bred from tournament winners by per-neuron
+// crossover and mutation. Each population slot has its own split random stream, so runs are reproducible
+// whatever the parallelism
+public class EvolutionTrainer {
+
+    private static final int CHUNK = 64;
+
+    private final NeuralNetwork network;
+    private int populationSize = 64, eliteCount = 2, tournamentSize = 3;
+    private float mutateChance = 0.2f;
+    private double mutationRate = 0.1, range = 1d;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public EvolutionTrainer(NeuralNetwork network) {
+        this.network = network;
+    }
+
+    public EvolutionTrainer populationSize(int populationSize) {
+        assert populationSize > 1;
+        this.populationSize = populationSize;
+        return this;
+    }
+
+    // best individuals copied unchanged into the next generation, so the best error never gets worse
+    public EvolutionTrainer eliteCount(int eliteCount) {
+        assert eliteCount > 0;
+        this.eliteCount = eliteCount;
+        return this;
+    }
+
+    public EvolutionTrainer tournamentSize(int tournamentSize) {
+        assert tournamentSize > 0;
+        this.tournamentSize = tournamentSize;
+        return this;
+    }
+
+    // chance and strength of mutating a neuron of a child, same meaning as in mutationTrain
+    public EvolutionTrainer mutation(float mutateChance, double mutationRate) {
+        assert mutateChance > 0 && mutationRate > 0;
+        this.mutateChance = mutateChance;
+        this.mutationRate = mutationRate;
+        return this;
+    }
+
+    // weights and biases of mutated neurons are clamped to [-range, range]
+    public EvolutionTrainer range(double range) {
+        assert range > 0;
+        this.range = range;
+        return this;
+    }
+
+    public EvolutionTrainer parallelism(int parallelism) {
+        assert parallelism > 0;
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    // stops once some individual has every output error on every example within minError,
+    // the best individual found is written into the network either way
+    public long train(List<Pair<double[]>> trainingDataset, double minError, long maxGenerations) {
+        assert eliteCount < populationSize;
+        double[][] inputs = pack(trainingDataset, true), targets = pack(trainingDataset, false);
+        SplittableRandom root = new SplittableRandom(network.getInputLayer().getRandom().nextLong());
+        Individual[] population = new Individual[populationSize], offspring = new Individual[populationSize];
+        SplittableRandom[] randoms = new SplittableRandom[populationSize];
+        for (int i = 0; i < populationSize; i++) {
+            population[i] = new Individual();
+            offspring[i] = new Individual();
+            randoms[i] = root.split();
+            if (i == 0) population[i].copyFrom(network);
+            else population[i].randomise(randoms[i]);
+        }
+        Workspace[] workspaces = new Workspace[parallelism];
+        for (int i = 0; i < workspaces.length; i++) workspaces[i] = network.newWorkspace(CHUNK);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            long generations = 0;
+            for (;;) {
+                Individual[] evaluated = population;
+                forEachSlot(pool, (slot, worker) -> evaluated[slot].evaluate(inputs, targets, workspaces[worker]));
+                Arrays.sort(population, Comparator.comparingDouble(individual -> individual.fitness));
+                Individual best = population[0];
+                for (Individual individual : population) {
+                    if (individual.maxError <= minError) {
+                        best = individual;
+                        break;
+                    }
+                }
+                if (best.maxError <= minError || ++generations >= maxGenerations) {
+                    best.copyTo(network);
+                    return generations;
+                }
+                Individual[] parents = population, children = offspring;
+                forEachSlot(pool, (slot, worker) -> {
+                    if (slot < eliteCount) children[slot].copyFrom(parents[slot]);
+                    else children[slot].breed(select(parents, randoms[slot]), select(parents, randoms[slot]), randoms[slot]);
+                });
+                offspring = population;
+                population = children;
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // parents are sorted by fitness, so the lowest index among the contestants wins
+    private Individual select(Individual[] parents, SplittableRandom random) {
+        int winner = parents.length;
+        for (int i = 0; i < tournamentSize; i++) winner = Math.min(winner, random.nextInt(parents.length));
+        return parents[winner];
+    }
+
+    private void forEachSlot(ForkJoinPool pool, SlotTask task) {
+        AtomicInteger cursor = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>(parallelism);
+        for (int w = 0; w < parallelism; w++) {
+            int worker = w;
+            tasks.add(() -> {
+                for (int slot = cursor.getAndIncrement(); slot < populationSize; slot = cursor.getAndIncrement()) task.run(slot, worker);
+                return null;
+            });
+        }
+        BackPropagationTrainer.invokeAll(pool, tasks);
+    }
+
+    // dataset as row-major batches of up to CHUNK samples
+    private double[][] pack(List<Pair<double[]>> dataset, boolean inputs) {
+        int width = inputs ? network.getInputLayer().getSize() : network.getOutputLayer().getSize();
+        double[][] chunks = new double[(dataset.size() + CHUNK - 1) / CHUNK][];
+        for (int c = 0; c < chunks.length; c++) {
+            int from = c * CHUNK, to = Math.min(dataset.size(), from + CHUNK);
+            chunks[c] = new double[(to - from) * width];
+            for (int i = from; i < to; i++) {
+                Pair<double[]> pair = dataset.get(i);
+                System.arraycopy(inputs ? pair.getFirst() : pair.getSecond(), 0, chunks[c], (i - from) * width, width);
+            }
+        }
+        return chunks;
+    }
+
+    private interface SlotTask {
+        void run(int slot, int worker);
+    }
+
+    // candidate weights live in plain arrays wrapped by a private network of the same shape
+    private class Individual {
+
+        private final NeuronLayer[] layers;
+        private final double[][] weights, biases;
+        private final NeuralNetwork candidate;
+        private double fitness, maxError;
+
+        Individual() {
+            int count = network.getHiddenLayers().length + 2;
+            this.layers = new NeuronLayer[count];
+            this.weights = new double[count][];
+            this.biases = new double[count][];
+            NeuronLayer inputLayer = network.getInputLayer();
+            // the input layer is never trained, its weights are shared with the network
+            layers[0] = new NeuronLayer(inputLayer.getSize(), inputLayer.getInputsCount(), inputLayer.getWeights(), inputLayer.getBiases(),
+                    null, null, inputLayer.getRandom(), inputLayer.getActivation());
+            for (NeuronLayer layer = inputLayer.getOutput(); layer != null; layer = layer.getOutput()) {
+                int depth = layer.getDepth();
+                weights[depth] = new double[layer.getWeights().length()];
+                biases[depth] = new double[layer.getBiases().length()];
+                layers[depth] = new NeuronLayer(layer.getSize(), layer.getInputsCount(), new ArrayStorage(weights[depth]), new ArrayStorage(biases[depth]),
+                        layers[depth - 1], null, layer.getRandom(), layer.getActivation());
+            }
+            this.candidate = new NeuralNetwork(layers, network.getInitializationMethod(), NeuralNetwork.Precision.DOUBLE);
+        }
+
+        void evaluate(double[][] inputs, double[][] targets, Workspace workspace) {
+            int outputSize = layers[layers.length - 1].getSize();
+            double squares = 0, max = 0;
+            long count = 0;
+            for (int c = 0; c < inputs.length; c++) {
+                int samples = targets[c].length / outputSize;
+                double[] output = candidate.output(inputs[c], samples, workspace);
+                for (int i = 0; i < samples * outputSize; i++) {
+                    double error = Math.abs(targets[c][i] - output[i]);
+                    squares += error * error;
+                    max = Math.max(max, error);
+                }
+                count += samples * outputSize;
+            }
+            this.fitness = squares / Math.max(1, count);
+            this.maxError = max;
+        }
+
+        void breed(Individual first, Individual second, SplittableRandom random) {
+            for (int depth = 1; depth < layers.length; depth++) {
+                NeuronLayer layer = layers[depth];
+                int inputsCount = layer.getInputsCount();
+                for (int j = 0, offset = 0; j < layer.getSize(); j++, offset += inputsCount) {
+                    Individual parent = random.nextBoolean() ? first : second;
+                    System.arraycopy(parent.weights[depth], offset, weights[depth], offset, inputsCount);
+                    biases[depth][j] = parent.biases[depth][j];
+                    if (random.nextFloat() <= mutateChance) {
+                        for (int i = offset; i < offset + inputsCount; i++) {
+                            weights[depth][i] += (1 - 2 * random.nextDouble()) * mutationRate;
+                        }
+                        biases[depth][j] += (1 - 2 * random.nextDouble()) * mutationRate;
+                        layer.normalizeNeuron(j, range);
+                    }
+                }
+            }
+        }
+
+        void randomise(SplittableRandom random) {
+            for (int depth = 1; depth < layers.length; depth++) {
+                for (int i = 0; i < weights[depth].length; i++) weights[depth][i] = 0.5d - random.nextDouble();
+                for (int i = 0; i < biases[depth].length; i++) biases[depth][i] = 0.5d - random.nextDouble();
+            }
+        }
+
+        void copyFrom(Individual other) {
+            for (int depth = 1; depth < layers.length; depth++) {
+                System.arraycopy(other.weights[depth], 0, weights[depth], 0, weights[depth].length);
+                System.arraycopy(other.biases[depth], 0, biases[depth], 0, biases[depth].length);
+            }
+        }
+
+        void copyFrom(NeuralNetwork source) {
+            for (NeuronLayer layer = source.getInputLayer().getOutput(); layer != null; layer = layer.getOutput()) {
+                layer.getWeights().copyTo(weights[layer.getDepth()]);
+                layer.getBiases().copyTo(biases[layer.getDepth()]);
+            }
+        }
+
+        void copyTo(NeuralNetwork target) {
+            for (NeuronLayer layer = target.getInputLayer().getOutput(); layer != null; layer = layer.getOutput()) {
+                layer.getWeights().copyFrom(weights[layer.getDepth()]);
+                layer.getBiases().copyFrom(biases[layer.getDepth()]);
+                layer.modified();
+            }
+        }
+
+    }
+
+}
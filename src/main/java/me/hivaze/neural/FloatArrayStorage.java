@@ -0,0 +1,74 @@
+package me.hivaze.neural;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Half the memory traffic of doubles, sums are kept either in float or in double (mixed precision)
+final class FloatArrayStorage extends Storage {
+
+    private final float[] values;
+    private final boolean doubleAccumulation;
+
+    FloatArrayStorage(float[] values, boolean doubleAccumulation) {
+        this.values = values;
+        this.doubleAccumulation = doubleAccumulation;
+    }
+
+    @Override
+    public int length() {
+        return values.length;
+    }
+
+    @Override
+    public double get(int index) {
+        return values[index];
+    }
+
+    @Override
+    public void set(int index, double value) {
+        values[index] = (float) value;
+    }
+
+    @Override
+    public void add(int index, double value) {
+        values[index] += (float) value;
+    }
+
+    @Override
+    public void fill(double value) {
+        Arrays.fill(values, (float) value);
+    }
+
+    @Override
+    public void addScaled(double scale, double[] values, int from, int to) {
+        Kernels.axpy(scale, values, from, this.values, from, to - from);
+    }
+
+    @Override
+    public double dot(int offset, double[] inputs, int inputsOffset, int length) {
+        if (doubleAccumulation) return Kernels.dot(values, offset, inputs, inputsOffset, length);
+        return Kernels.dotSingle(values, offset, inputs, inputsOffset, length);
+    }
+
+    @Override
+    public void axpyTo(double alpha, int offset, double[] result, int resultOffset, int length) {
+        Kernels.axpy(alpha, values, offset, result, resultOffset, length);
+    }
+
+    @Override
+    public void copyTo(double[] target) {
+        for (int i = 0; i < values.length; i++) target[i] = values[i];
+    }
+
+    @Override
+    public void writeTo(ByteBuffer target, int from, int to) {
+        target.asFloatBuffer().put(values, from, to - from);
+        target.position(target.position() + (to - from) * Float.BYTES);
+    }
+
+    @Override
+    public int bytesPerElement() {
+        return Float.BYTES;
+    }
+
+}
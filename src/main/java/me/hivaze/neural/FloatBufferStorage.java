@@ -0,0 +1,55 @@
+package me.hivaze.neural;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+final class FloatBufferStorage extends Storage {
+
+    private final ByteBuffer values;
+    private final int length;
+    private final boolean doubleAccumulation;
+
+    FloatBufferStorage(ByteBuffer buffer, boolean doubleAccumulation) {
+        this.values = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.length = buffer.capacity() / Float.BYTES;
+        this.doubleAccumulation = doubleAccumulation;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public double get(int index) {
+        return values.getFloat(index << 2);
+    }
+
+    @Override
+    public void set(int index, double value) {
+        values.putFloat(index << 2, (float) value);
+    }
+
+    // rounded like FloatArrayStorage, so updates are the same wherever the floats live
+    @Override
+    public void add(int index, double value) {
+        values.putFloat(index << 2, values.getFloat(index << 2) + (float) value);
+    }
+
+    @Override
+    public double dot(int offset, double[] inputs, int inputsOffset, int length) {
+        if (doubleAccumulation) return Kernels.dotFloats(values, offset, inputs, inputsOffset, length);
+        return Kernels.dotFloatsSingle(values, offset, inputs, inputsOffset, length);
+    }
+
+    @Override
+    public void writeTo(ByteBuffer target, int from, int to) {
+        for (int i = from; i < to; i++) target.putFloat(values.getFloat(i << 2));
+    }
+
+    @Override
+    public int bytesPerElement() {
+        return Float.BYTES;
+    }
+
+}
@@ -0,0 +1,49 @@
+package me.hivaze.neural;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Accumulated weight corrections laid out exactly like the layers' weights and biases.
+// Values point downhill (target - output direction), so applying is weights += scale * corrections
+public class Gradients {
+
+    private final double[][] weights, biases;
+
+    public Gradients(NeuralNetwork network) {
+        int layers = network.getHiddenLayers().length + 2;
+        this.weights = new double[layers][];
+        this.biases = new double[layers][];
+        for (NeuronLayer layer = network.getInputLayer().getOutput(); layer != null; layer = layer.getOutput()) {
+            weights[layer.getDepth()] = new double[layer.getWeights().length()];
+            biases[layer.getDepth()] = new double[layer.getBiases().length()];
+        }
+    }
+
+    public double[] getWeights(NeuronLayer layer) {
+        return weights[layer.getDepth()];
+    }
+
+    public double[] getBiases(NeuronLayer layer) {
+        return biases[layer.getDepth()];
+    }
+
+    // weights then biases of every trained layer, by depth
+    List<double[]> buffers() {
+        List<double[]> buffers = new ArrayList<>();
+        for (int i = 1; i < weights.length; i++) {
+            buffers.add(weights[i]);
+            buffers.add(biases[i]);
+        }
+        return buffers;
+    }
+
+    public Gradients clear() {
+        for (int i = 1; i < weights.length; i++) {
+            Arrays.fill(weights[i], 0d);
+            Arrays.fill(biases[i], 0d);
+        }
+        return this;
+    }
+
+}
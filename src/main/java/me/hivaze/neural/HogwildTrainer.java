@@ -0,0 +1,102 @@
+package me.hivaze.neural;
+
+import me.hivaze.utils.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Asynchronous SGD: workers pull examples from a shared cursor and add their corrections
+// to the shared weights without any locking, racing writes are simply allowed to collide
+public class HogwildTrainer {
+
+    private final NeuralNetwork network;
+    private double learningSpeed = 0.01;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public HogwildTrainer(NeuralNetwork network) {
+        this.network = network;
+    }
+
+    public HogwildTrainer learningSpeed(double learningSpeed) {
+        assert learningSpeed > 0;
+        this.learningSpeed = learningSpeed;
+        return this;
+    }
+
+    public HogwildTrainer parallelism(int parallelism) {
+        assert parallelism > 0;
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public long train(List<Pair<double[]>> trainingDataset, double[] minAllowedError, long maxIterations) {
+        assert minAllowedError.length == network.getOutputLayer().getSize();
+        Worker[] workers = new Worker[parallelism];
+        for (int i = 0; i < workers.length; i++) workers[i] = new Worker();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            AtomicInteger cursor = new AtomicInteger();
+            List<Callable<Void>> tasks = new ArrayList<>(workers.length);
+            for (Worker worker : workers) {
+                tasks.add(() -> {
+                    worker.train(trainingDataset, cursor);
+                    return null;
+                });
+            }
+            long iterations = 0;
+            for (; iterations < maxIterations; iterations++) {
+                cursor.set(0);
+                for (Worker worker : workers) Arrays.fill(worker.currentError, 0d);
+                BackPropagationTrainer.invokeAll(pool, tasks);
+                // once per epoch rather than per sample, the workers would fight over the counters otherwise
+                for (NeuronLayer layer = network.getInputLayer().getOutput(); layer != null; layer = layer.getOutput()) layer.modified();
+                double[] currentError = workers[0].currentError;
+                for (int i = 1; i < workers.length; i++) {
+                    for (int j = 0; j < currentError.length; j++) {
+                        currentError[j] = Math.max(currentError[j], workers[i].currentError[j]);
+                    }
+                }
+                boolean valid = true;
+                errorCheck: for (int i = 0; i < currentError.length; i++) {
+                    if (currentError[i] > minAllowedError[i]) {
+                        valid = false;
+                        break errorCheck;
+                    }
+                }
+                if (valid) break;
+            }
+            return iterations;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private class Worker {
+
+        private final Workspace workspace = network.newWorkspace();
+        private final Gradients gradients = new Gradients(network);
+        private final double[] currentError = new double[network.getOutputLayer().getSize()];
+
+        void train(List<Pair<double[]>> dataset, AtomicInteger cursor) {
+            for (int i = cursor.getAndIncrement(); i < dataset.size(); i = cursor.getAndIncrement()) {
+                Pair<double[]> pair = dataset.get(i);
+                BackPropagationTrainer.backPropagate(network, pair.getFirst(), pair.getSecond(), workspace, gradients, currentError);
+                for (NeuronLayer layer = network.getInputLayer().getOutput(); layer != null; layer = layer.getOutput()) {
+                    apply(gradients.getWeights(layer), layer.getWeights());
+                    apply(gradients.getBiases(layer), layer.getBiases());
+                }
+            }
+        }
+
+        private void apply(double[] corrections, Storage target) {
+            target.addScaled(learningSpeed, corrections, 0, corrections.length);
+            Arrays.fill(corrections, 0d);
+        }
+
+    }
+
+}
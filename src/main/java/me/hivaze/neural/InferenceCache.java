@@ -0,0 +1,214 @@
+package me.hivaze.neural;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+// Remembers outputs of the network for inputs seen before. Keys are the input bits, or the inputs rounded to
+// multiples of the tolerance, in flat primitive arrays: a slot of the table holds the key, the output, its hash and
+// the network version it was computed at. A key can only sit in the 8 slots of its set, a full set evicts with CLOCK.
+// Keys spread over the sets unevenly, size it a few times above the inputs meant to stay cached.
+// Entries from an older network version never match, so training, normalize, randomise and the rest invalidate it all.
+// Hits read under an optimistic stamp of one of the striped locks, misses run the network outside of any lock
+public class InferenceCache {
+
+    private static final int WAYS = 8, STRIPES = 64;
+
+    private final NeuralNetwork network;
+    private final int inputSize, outputSize, sets;
+    private final long[] hashes, keys, versions;
+    private final double[] outputs;
+    // CLOCK reference bits per slot and hands per set
+    private final byte[] referenced, hands;
+    private final StampedLock[] locks;
+    private final ThreadLocal<long[]> keyBuffers;
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+    private double tolerance = 0;
+
+    public InferenceCache(NeuralNetwork network, int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive");
+        this.network = network;
+        this.inputSize = network.getInputLayer().getSize();
+        this.outputSize = network.getOutputLayer().getSize();
+        int sets = 1;
+        while ((long) sets * WAYS < capacity) sets <<= 1;
+        this.sets = sets;
+        int slots = sets * WAYS;
+        this.hashes = new long[slots];
+        this.keys = new long[Math.multiplyExact(slots, inputSize)];
+        this.outputs = new double[Math.multiplyExact(slots, outputSize)];
+        this.versions = new long[slots];
+        Arrays.fill(versions, -1);
+        this.referenced = new byte[slots];
+        this.hands = new byte[sets];
+        this.locks = new StampedLock[Math.min(STRIPES, sets)];
+        for (int i = 0; i < locks.length; i++) locks[i] = new StampedLock();
+        this.keyBuffers = ThreadLocal.withInitial(() -> new long[inputSize]);
+    }
+
+    // as many entries as fit in about maxBytes, rounded to whole sets
+    public static InferenceCache ofBytes(NeuralNetwork network, long maxBytes) {
+        long entries = maxBytes / entryBytes(network.getInputLayer().getSize(), network.getOutputLayer().getSize());
+        if (entries < WAYS) throw new IllegalArgumentException("Not even " + WAYS + " entries fit in " + maxBytes + " bytes");
+        return new InferenceCache(network, (int) Long.highestOneBit(Math.min(entries, Integer.MAX_VALUE)));
+    }
+
+    // inputs whose values round to the same multiples of the tolerance share an entry and get the output of the
+    // first of them seen. Close inputs on both sides of a rounding boundary don't, and ones nearly a tolerance apart
+    // may. 0 keeps exact bits. Set it before sharing the cache between threads
+    public InferenceCache tolerance(double tolerance) {
+        if (!(tolerance >= 0)) throw new IllegalArgumentException("Tolerance can't be negative");
+        this.tolerance = tolerance;
+        clear();
+        return this;
+    }
+
+    // same as NeuralNetwork.output(double[]), safe to call from many threads at once
+    public double[] output(double[] inputs) {
+        assert inputs.length == inputSize;
+        // read before the lookup, so an entry computed while weights were changing is already stale when stored
+        long version = network.getVersion();
+        long[] key = keyBuffers.get();
+        long hash = key(inputs, key);
+        int set = (int) (hash ^ hash >>> 32) & (sets - 1);
+        StampedLock lock = locks[set & (locks.length - 1)];
+        double[] result = new double[outputSize];
+        long stamp = lock.tryOptimisticRead();
+        int slot = find(set, hash, key, version);
+        if (slot >= 0) System.arraycopy(outputs, slot * outputSize, result, 0, outputSize);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                slot = find(set, hash, key, version);
+                if (slot >= 0) System.arraycopy(outputs, slot * outputSize, result, 0, outputSize);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (slot >= 0) {
+            // only a hint for CLOCK, a lost write is harmless
+            referenced[slot] = 1;
+            hits.increment();
+            return result;
+        }
+        misses.increment();
+        result = network.output(inputs);
+        if (network.getVersion() != version) return result;
+        stamp = lock.writeLock();
+        try {
+            store(set, hash, key, version, result);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return result;
+    }
+
+    public InferenceCache clear() {
+        long[] stamps = new long[locks.length];
+        for (int i = 0; i < locks.length; i++) stamps[i] = locks[i].writeLock();
+        try {
+            Arrays.fill(versions, -1);
+            Arrays.fill(referenced, (byte) 0);
+        } finally {
+            for (int i = 0; i < locks.length; i++) locks[i].unlockWrite(stamps[i]);
+        }
+        return this;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    // valid entries pushed out by CLOCK, not counting stale ones replaced
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long hits = getHits(), lookups = hits + getMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public int getCapacity() {
+        return sets * WAYS;
+    }
+
+    public long getBytes() {
+        return (long) getCapacity() * entryBytes(inputSize, outputSize) + sets;
+    }
+
+    public NeuralNetwork getNetwork() {
+        return network;
+    }
+
+    private static long entryBytes(int inputSize, int outputSize) {
+        return (long) inputSize * Long.BYTES + (long) outputSize * Double.BYTES + 2 * Long.BYTES + 1;
+    }
+
+    // fills key and returns its hash
+    private long key(double[] inputs, long[] key) {
+        long hash = inputSize;
+        for (int i = 0; i < inputSize; i++) {
+            // the nearest multiple of the tolerance counted in tolerances, or the bits with every NaN folded into one
+            long bits = tolerance > 0 ? Math.round(inputs[i] / tolerance) : Double.doubleToLongBits(inputs[i]);
+            key[i] = bits;
+            hash = Long.rotateLeft((hash ^ bits) * 0x9E3779B97F4A7C15L, 27);
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        return hash ^ hash >>> 33;
+    }
+
+    // slot of a current entry for the key or -1; indices don't depend on what is read, so it's safe under an optimistic stamp
+    private int find(int set, long hash, long[] key, long version) {
+        for (int slot = set * WAYS, end = slot + WAYS; slot < end; slot++) {
+            if (versions[slot] == version && hashes[slot] == hash && matches(slot, key)) return slot;
+        }
+        return -1;
+    }
+
+    private boolean matches(int slot, long[] key) {
+        for (int i = 0, offset = slot * inputSize; i < inputSize; i++) {
+            if (keys[offset + i] != key[i]) return false;
+        }
+        return true;
+    }
+
+    // under the write lock of the set's stripe
+    private void store(int set, long hash, long[] key, long version, double[] output) {
+        int slot = find(set, hash, key, version);
+        if (slot < 0) {
+            // an empty or stale slot first, then the first one without its reference bit from the hand on
+            for (int s = set * WAYS, end = s + WAYS; s < end; s++) {
+                if (versions[s] != version) {
+                    slot = s;
+                    break;
+                }
+            }
+        }
+        if (slot < 0) {
+            int hand = hands[set];
+            for (;; hand = (hand + 1) & (WAYS - 1)) {
+                int s = set * WAYS + hand;
+                if (referenced[s] == 0) {
+                    slot = s;
+                    break;
+                }
+                referenced[s] = 0;
+            }
+            hands[set] = (byte) ((hand + 1) & (WAYS - 1));
+            evictions.increment();
+        }
+        hashes[slot] = hash;
+        System.arraycopy(key, 0, keys, slot * inputSize, inputSize);
+        System.arraycopy(output, 0, outputs, slot * outputSize, outputSize);
+        versions[slot] = version;
+        // a new entry has to be hit once to survive the next pass of the hand
+        referenced[slot] = 0;
+    }
+
+}
@@ -0,0 +1,35 @@
+package me.hivaze.neural;
+
+import java.nio.ByteBuffer;
+
+// Inner loops of every storage type. Buffers hold little-endian values, offsets count elements.
+// Each backend must sum heap and buffer variants in the same order so mapped and heap models agree
+interface KernelBackend {
+
+    double dot(double[] weights, int weightsOffset, double[] inputs, int inputsOffset, int length);
+
+    double dotDoubles(ByteBuffer weights, int weightsOffset, double[] inputs, int inputsOffset, int length);
+
+    // float weights summed in double
+    double dot(float[] weights, int weightsOffset, double[] inputs, int inputsOffset, int length);
+
+    double dotFloats(ByteBuffer weights, int weightsOffset, double[] inputs, int inputsOffset, int length);
+
+    // float weights summed in float
+    float dotSingle(float[] weights, int weightsOffset, double[] inputs, int inputsOffset, int length);
+
+    float dotFloatsSingle(ByteBuffer weights, int weightsOffset, double[] inputs, int inputsOffset, int length);
+
+    // int8 weights and activations, exact int32 sum
+    int dot(byte[] weights, int weightsOffset, byte[] inputs, int length);
+
+    // y[i] += alpha * x[i]
+    void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    void axpy(double alpha, float[] x, int xOffset, double[] y, int yOffset, int length);
+
+    void axpy(double alpha, double[] x, int xOffset, float[] y, int yOffset, int length);
+
+    void activate(Neuron.Activation activation, double[] rawSums, double[] result, int length);
+
+}
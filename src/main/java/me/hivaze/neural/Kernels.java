@@ -0,0 +1,184 @@
+package me.hivaze.neural;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+final class Kernels {
+
+    // weights panel kept hot in cache while the whole batch streams over it (~256 KiB)
+    static final int PANEL_BYTES = 256 * 1024;
+
+    // -Dme.hivaze.neural.kernels=scalar turns the vector backend off
+    private static final KernelBackend BACKEND = loadBackend();
+    private static final boolean VECTORIZED = !(BACKEND instanceof ScalarKernels);
+
+    private Kernels() {}
+
+    static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    // VectorKernels only exists when built on JDK 17+ and only links when jdk.incubator.vector is resolved
+    private static KernelBackend loadBackend() {
+        ScalarKernels scalar = new ScalarKernels();
+        if ("scalar".equals(System.getProperty("me.hivaze.neural.kernels"))) return scalar;
+        try {
+            KernelBackend vector = (KernelBackend) Class.forName("me.hivaze.neural.VectorKernels").getDeclaredConstructor().newInstance();
+            return agrees(vector, scalar) ? vector : scalar;
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            return scalar;
+        }
+    }
+
+    // runs every kernel on both backends, so an incompatible incubator API or a wrong lane loop fails here
+    // instead of mid-training or silently corrupting it
+    private static boolean agrees(KernelBackend vector, KernelBackend scalar) {
+        for (int length : new int[] { 1, 7, 37 }) {
+            if (!agrees(vector, scalar, length, 3)) return false;
+        }
+        return true;
+    }
+
+    // axpy and activate results must match bit for bit, dots up to the summation order
+    static boolean agrees(KernelBackend first, KernelBackend second, int length, int offset) {
+        int size = length + offset, inputsOffset = offset / 2;
+        double[] doubles = new double[size], inputs = new double[size];
+        float[] floats = new float[size];
+        byte[] bytes = new byte[size], codes = new byte[length];
+        ByteBuffer doubleBytes = ByteBuffer.allocate(size * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer floatBytes = ByteBuffer.allocate(size * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < size; i++) {
+            doubles[i] = Math.sin(i);
+            floats[i] = (float) Math.cos(i);
+            inputs[i] = 1d / (i + 1);
+            doubleBytes.putDouble(i * Double.BYTES, doubles[i]);
+            floatBytes.putFloat(i * Float.BYTES, floats[i]);
+            bytes[i] = (byte) (i * 37);
+        }
+        for (int i = 0; i < length; i++) codes[i] = (byte) (-i * 11);
+        boolean agree = Math.abs(first.dot(doubles, offset, inputs, inputsOffset, length) - second.dot(doubles, offset, inputs, inputsOffset, length)) < 1e-9
+                && Math.abs(first.dotDoubles(doubleBytes, offset, inputs, inputsOffset, length) - second.dotDoubles(doubleBytes, offset, inputs, inputsOffset, length)) < 1e-9
+                && Math.abs(first.dot(floats, offset, inputs, inputsOffset, length) - second.dot(floats, offset, inputs, inputsOffset, length)) < 1e-5
+                && Math.abs(first.dotFloats(floatBytes, offset, inputs, inputsOffset, length) - second.dotFloats(floatBytes, offset, inputs, inputsOffset, length)) < 1e-5
+                && Math.abs(first.dotSingle(floats, offset, inputs, inputsOffset, length) - second.dotSingle(floats, offset, inputs, inputsOffset, length)) < 1e-4
+                && Math.abs(first.dotFloatsSingle(floatBytes, offset, inputs, inputsOffset, length) - second.dotFloatsSingle(floatBytes, offset, inputs, inputsOffset, length)) < 1e-4
+                && first.dot(bytes, offset, codes, length) == second.dot(bytes, offset, codes, length);
+        double[] firstDoubles = inputs.clone(), secondDoubles = inputs.clone();
+        first.axpy(0.5, doubles, offset, firstDoubles, inputsOffset, length);
+        second.axpy(0.5, doubles, offset, secondDoubles, inputsOffset, length);
+        agree &= Arrays.equals(firstDoubles, secondDoubles);
+        first.axpy(-0.25, floats, offset, firstDoubles, inputsOffset, length);
+        second.axpy(-0.25, floats, offset, secondDoubles, inputsOffset, length);
+        agree &= Arrays.equals(firstDoubles, secondDoubles);
+        float[] firstFloats = floats.clone(), secondFloats = floats.clone();
+        first.axpy(0.5, inputs, inputsOffset, firstFloats, offset, length);
+        second.axpy(0.5, inputs, inputsOffset, secondFloats, offset, length);
+        agree &= Arrays.equals(firstFloats, secondFloats);
+        for (Neuron.Activation activation : Neuron.Activation.values()) {
+            // past length both keep what they had
+            double[] firstResult = inputs.clone(), secondResult = inputs.clone();
+            first.activate(activation, doubles, firstResult, length);
+            second.activate(activation, doubles, secondResult, length);
+            agree &= Arrays.equals(firstResult, secondResult);
+        }
+        return agree;
+    }
+
+    static double dot(double[] weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        return BACKEND.dot(weights, weightsOffset, inputs, inputsOffset, length);
+    }
+
+    static double dotDoubles(ByteBuffer weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        return BACKEND.dotDoubles(weights, weightsOffset, inputs, inputsOffset, length);
+    }
+
+    // float weights, products summed in double
+    static double dot(float[] weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        return BACKEND.dot(weights, weightsOffset, inputs, inputsOffset, length);
+    }
+
+    static double dotFloats(ByteBuffer weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        return BACKEND.dotFloats(weights, weightsOffset, inputs, inputsOffset, length);
+    }
+
+    // float weights, products rounded and summed in float
+    static float dotSingle(float[] weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        return BACKEND.dotSingle(weights, weightsOffset, inputs, inputsOffset, length);
+    }
+
+    static float dotFloatsSingle(ByteBuffer weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        return BACKEND.dotFloatsSingle(weights, weightsOffset, inputs, inputsOffset, length);
+    }
+
+    // int8 weights times int8 activation codes, summed exactly in int
+    static int dot(byte[] weights, int weightsOffset, byte[] inputs, int length) {
+        return BACKEND.dot(weights, weightsOffset, inputs, length);
+    }
+
+    // y[i] += alpha * x[i]
+    static void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        BACKEND.axpy(alpha, x, xOffset, y, yOffset, length);
+    }
+
+    static void axpy(double alpha, float[] x, int xOffset, double[] y, int yOffset, int length) {
+        BACKEND.axpy(alpha, x, xOffset, y, yOffset, length);
+    }
+
+    static void axpy(double alpha, double[] x, int xOffset, float[] y, int yOffset, int length) {
+        BACKEND.axpy(alpha, x, xOffset, y, yOffset, length);
+    }
+
+    static void activate(Neuron.Activation activation, double[] rawSums, double[] result, int length) {
+        BACKEND.activate(activation, rawSums, result, length);
+    }
+
+    // result[r] = sum(weights[r][c] * inputs[c])
+    static void gemv(double[] weights, int rows, int columns, double[] inputs, double[] result) {
+        for (int r = 0, offset = 0; r < rows; r++, offset += columns) {
+            result[r] = dot(weights, offset, inputs, 0, columns);
+        }
+    }
+
+    // result[s][r] = sum(weights[r][c] * inputs[s][c]) for every sample s of the batch,
+    // scalar loops reuse each loaded weight for four samples, vector dots are already faster than that
+    static void gemm(double[] weights, int rows, int columns, double[] inputs, int samples, double[] result) {
+        int panelRows = Math.max(1, PANEL_BYTES / Double.BYTES / Math.max(1, columns));
+        for (int from = 0; from < rows; from += panelRows) {
+            int to = Math.min(rows, from + panelRows);
+            int s = 0;
+            for (; !VECTORIZED && s + 4 <= samples; s += 4) {
+                int x0 = s * columns, x1 = x0 + columns, x2 = x1 + columns, x3 = x2 + columns;
+                for (int r = from; r < to; r++) {
+                    int offset = r * columns;
+                    double a0 = 0, a1 = 0, a2 = 0, a3 = 0;
+                    for (int c = 0; c < columns; c++) {
+                        double weight = weights[offset + c];
+                        a0 += weight * inputs[x0 + c];
+                        a1 += weight * inputs[x1 + c];
+                        a2 += weight * inputs[x2 + c];
+                        a3 += weight * inputs[x3 + c];
+                    }
+                    result[s * rows + r] = a0;
+                    result[(s + 1) * rows + r] = a1;
+                    result[(s + 2) * rows + r] = a2;
+                    result[(s + 3) * rows + r] = a3;
+                }
+            }
+            for (; s < samples; s++) {
+                for (int r = from; r < to; r++) {
+                    result[s * rows + r] = dot(weights, r * columns, inputs, s * columns, columns);
+                }
+            }
+        }
+    }
+
+    // result[c] = sum(errors[r] * weights[r][c]), walks weights row by row
+    static void gemvTransposed(double[] weights, int rows, int columns, double[] errors, double[] result) {
+        Arrays.fill(result, 0, columns, 0d);
+        for (int r = 0, offset = 0; r < rows; r++, offset += columns) {
+            axpy(errors[r], weights, offset, result, 0, columns);
+        }
+    }
+
+}
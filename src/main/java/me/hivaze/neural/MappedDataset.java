@@ -0,0 +1,28 @@
+package me.hivaze.neural;
+
+import java.nio.DoubleBuffer;
+
+// Records spread over several mappings of whole records each, a single buffer can't address more than 2 GB
+final class MappedDataset extends Dataset {
+
+    private final DoubleBuffer[] chunks;
+    private final int recordsPerChunk, size;
+
+    MappedDataset(DoubleBuffer[] chunks, int recordsPerChunk, int size, int inputSize, int targetSize) {
+        super(inputSize, targetSize);
+        this.chunks = chunks;
+        this.recordsPerChunk = recordsPerChunk;
+        this.size = size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    void copy(int index, int column, double[] target, int offset, int length) {
+        chunks[index / recordsPerChunk].get((index % recordsPerChunk) * getRecordSize() + column, target, offset, length);
+    }
+
+}
@@ -0,0 +1,329 @@
+package me.hivaze.neural;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+// Binary .dnn layout, everything little-endian:
+//   header  magic, version, dtype (precision ordinal, or 3 for int8), initialization, layers count
+//           then size, inputs count, activation for every layer, padded to 8 bytes
+//   blocks  weights then biases of every layer, each block padded to 8 bytes
+//           int8 models: the input layer as doubles, then for every other layer int8 weights, row scales,
+//           biases and the input scale and zero-point (16 bytes)
+//           sparse models: the input layer as doubles, then for every other layer the non-zero count (8 bytes),
+//           CSR row starts and columns as ints and the non-zero values and biases as doubles
+// Blocks are mapped straight into the layers' storage when loading, nothing is copied to the heap.
+// Int8 and sparse models are small and are read onto the heap
+final class ModelFormat {
+
+    static final int MAGIC = 0x004E4E44; // "DNN\0"
+    static final int VERSION = 1;
+    static final int DTYPE_INT8 = 3;
+    static final int DTYPE_SPARSE = 4;
+
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    private ModelFormat() {}
+
+    static void write(NeuralNetwork network, Path path) throws IOException {
+        NeuronLayer inputLayer = network.getInputLayer();
+        int layersCount = network.getHiddenLayers().length + 2;
+        ByteBuffer header = header(network.getPrecision().ordinal(), network.getInitializationMethod(), layersCount);
+        for (NeuronLayer layer = inputLayer; layer != null; layer = layer.getOutput()) {
+            header.putInt(layer.getSize()).putInt(layer.getInputsCount()).putInt(layer.getActivation().ordinal());
+        }
+        header.clear();
+        replace(path, channel -> {
+            writeFully(channel, header);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (NeuronLayer layer = inputLayer; layer != null; layer = layer.getOutput()) {
+                writeBlock(channel, chunk, layer.getWeights());
+                writeBlock(channel, chunk, layer.getBiases());
+            }
+        });
+    }
+
+    static void writeQuantized(QuantizedNetwork network, Path path) throws IOException {
+        QuantizedLayer[] layers = network.getLayers();
+        double[] inputWeights = network.getInputWeights(), inputBiases = network.getInputBiases();
+        ByteBuffer header = header(DTYPE_INT8, network.getInitializationMethod(), layers.length + 1);
+        header.putInt(inputWeights.length).putInt(1).putInt(Neuron.Activation.LINEAR.ordinal());
+        for (QuantizedLayer layer : layers) header.putInt(layer.size).putInt(layer.inputsCount).putInt(layer.activation.ordinal());
+        header.clear();
+        replace(path, channel -> {
+            writeFully(channel, header);
+            writeFully(channel, doubles(inputWeights));
+            writeFully(channel, doubles(inputBiases));
+            for (QuantizedLayer layer : layers) {
+                ByteBuffer weights = ByteBuffer.allocate((int) padded(layer.weights.length)).put(layer.weights);
+                writeFully(channel, weights.clear());
+                writeFully(channel, doubles(layer.scales));
+                writeFully(channel, doubles(layer.biases));
+                ByteBuffer quantization = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN).putDouble(layer.inputScale).putInt(layer.inputZeroPoint);
+                writeFully(channel, quantization.clear());
+            }
+        });
+    }
+
+    static void writeSparse(SparseNetwork network, Path path) throws IOException {
+        SparseLayer[] layers = network.getLayers();
+        double[] inputWeights = network.getInputWeights(), inputBiases = network.getInputBiases();
+        ByteBuffer header = header(DTYPE_SPARSE, network.getInitializationMethod(), layers.length + 1);
+        header.putInt(inputWeights.length).putInt(1).putInt(Neuron.Activation.LINEAR.ordinal());
+        for (SparseLayer layer : layers) header.putInt(layer.size).putInt(layer.inputsCount).putInt(layer.activation.ordinal());
+        header.clear();
+        replace(path, channel -> {
+            writeFully(channel, header);
+            writeFully(channel, doubles(inputWeights));
+            writeFully(channel, doubles(inputBiases));
+            for (SparseLayer layer : layers) {
+                writeFully(channel, ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(0, layer.values.length));
+                writeFully(channel, ints(layer.rowStarts));
+                writeFully(channel, ints(layer.columns));
+                writeFully(channel, doubles(layer.values));
+                writeFully(channel, doubles(layer.biases));
+            }
+        });
+    }
+
+    // written next to the target and moved over it: a crash leaves the old file whole, and models mapped from
+    // the target keep reading the old file, so a loaded network can be saved back to where it came from
+    private static void replace(Path path, Body body) throws IOException {
+        Path target = path.toAbsolutePath();
+        // not Files.createTempFile, the model would end up readable by its owner only
+        Path temporary = target.resolveSibling("." + target.getFileName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                body.write(channel);
+                channel.force(true);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private interface Body {
+        void write(FileChannel channel) throws IOException;
+    }
+
+    private static ByteBuffer ints(int[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate((int) padded((long) values.length * Integer.BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asIntBuffer().put(values);
+        return buffer;
+    }
+
+    private static ByteBuffer doubles(double[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asDoubleBuffer().put(values);
+        return buffer;
+    }
+
+    private static ByteBuffer header(int dtype, NeuralNetwork.Initialization initialization, int layersCount) {
+        ByteBuffer header = ByteBuffer.allocate(headerSize(layersCount)).order(ByteOrder.LITTLE_ENDIAN);
+        return header.putInt(MAGIC).putInt(VERSION).putInt(dtype).putInt(initialization.ordinal()).putInt(layersCount);
+    }
+
+    private static void writeBlock(FileChannel channel, ByteBuffer chunk, Storage storage) throws IOException {
+        int perChunk = chunk.capacity() / storage.bytesPerElement();
+        for (int from = 0; from < storage.length(); from += perChunk) {
+            chunk.clear();
+            storage.writeTo(chunk, from, Math.min(storage.length(), from + perChunk));
+            while (chunk.position() % Long.BYTES != 0) chunk.put((byte) 0);
+            chunk.flip();
+            writeFully(channel, chunk);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    static NeuralNetwork read(Path path, Random random) throws IOException {
+        // a private mapping needs a writable channel, read-only files load as inference-only models
+        boolean writable = Files.isWritable(path);
+        FileChannel.MapMode mode = writable ? FileChannel.MapMode.PRIVATE : FileChannel.MapMode.READ_ONLY;
+        try (FileChannel channel = writable ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE) : FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer prefix = readPrefix(channel, path);
+            int dtype = prefix.getInt();
+            if (dtype == DTYPE_INT8) throw new IOException("Int8 .dnn model, load it as a QuantizedNetwork: " + path);
+            if (dtype == DTYPE_SPARSE) throw new IOException("Sparse .dnn model, load it as a SparseNetwork: " + path);
+            if (dtype < 0 || dtype >= NeuralNetwork.Precision.values().length) throw new IOException("Unsupported .dnn dtype " + dtype + ": " + path);
+            NeuralNetwork.Precision precision = NeuralNetwork.Precision.values()[dtype];
+            int elementBytes = precision == NeuralNetwork.Precision.DOUBLE ? Double.BYTES : Float.BYTES;
+            NeuralNetwork.Initialization initialization = ordinal(NeuralNetwork.Initialization.values(), prefix.getInt(), path);
+            int layersCount = prefix.getInt();
+            ByteBuffer header = readHeader(channel, prefix, layersCount, path);
+            long position = headerSize(layersCount);
+            NeuronLayer[] layers = new NeuronLayer[layersCount];
+            for (int i = 0; i < layersCount; i++) {
+                int size = header.getInt(), inputsCount = header.getInt();
+                checkShape(i, size, inputsCount, i > 0 ? layers[i - 1].getSize() : 1, path);
+                Neuron.Activation activation = ordinal(Neuron.Activation.values(), header.getInt(), path);
+                Storage weights = map(channel, mode, precision, position, (long) size * inputsCount * elementBytes);
+                position += padded((long) size * inputsCount * elementBytes);
+                Storage biases = map(channel, mode, precision, position, (long) size * elementBytes);
+                position += padded((long) size * elementBytes);
+                layers[i] = new NeuronLayer(size, inputsCount, weights, biases, i > 0 ? layers[i - 1] : null, null, random, activation);
+            }
+            return new NeuralNetwork(layers, initialization, precision);
+        }
+    }
+
+    static QuantizedNetwork readQuantized(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer prefix = readPrefix(channel, path);
+            int dtype = prefix.getInt();
+            if (dtype != DTYPE_INT8) throw new IOException("Not an int8 .dnn model, load it as a NeuralNetwork: " + path);
+            NeuralNetwork.Initialization initialization = ordinal(NeuralNetwork.Initialization.values(), prefix.getInt(), path);
+            int layersCount = prefix.getInt();
+            ByteBuffer header = readHeader(channel, prefix, layersCount, path);
+            long position = headerSize(layersCount);
+            int inputSize = header.getInt();
+            checkShape(0, inputSize, header.getInt(), 1, path);
+            header.getInt();
+            double[] inputWeights = readDoubles(channel, position, inputSize), inputBiases = readDoubles(channel, position += inputSize * Double.BYTES, inputSize);
+            position += inputSize * Double.BYTES;
+            QuantizedLayer[] layers = new QuantizedLayer[layersCount - 1];
+            for (int i = 0; i < layers.length; i++) {
+                int size = header.getInt(), inputsCount = header.getInt();
+                checkShape(i + 1, size, inputsCount, i > 0 ? layers[i - 1].size : inputSize, path);
+                Neuron.Activation activation = ordinal(Neuron.Activation.values(), header.getInt(), path);
+                checkFits(channel, position, (long) size * inputsCount);
+                byte[] weights = new byte[size * inputsCount];
+                readFully(channel, position, weights.length).get(weights);
+                position += padded(weights.length);
+                double[] scales = readDoubles(channel, position, size), biases = readDoubles(channel, position += size * Double.BYTES, size);
+                position += size * Double.BYTES;
+                ByteBuffer quantization = readFully(channel, position, 16);
+                position += 16;
+                layers[i] = new QuantizedLayer(size, inputsCount, weights, scales, biases, activation, quantization.getDouble(), quantization.getInt());
+            }
+            return new QuantizedNetwork(inputWeights, inputBiases, layers, initialization);
+        }
+    }
+
+    static SparseNetwork readSparse(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer prefix = readPrefix(channel, path);
+            int dtype = prefix.getInt();
+            if (dtype != DTYPE_SPARSE) throw new IOException("Not a sparse .dnn model: " + path);
+            NeuralNetwork.Initialization initialization = ordinal(NeuralNetwork.Initialization.values(), prefix.getInt(), path);
+            int layersCount = prefix.getInt();
+            ByteBuffer header = readHeader(channel, prefix, layersCount, path);
+            long position = headerSize(layersCount);
+            int inputSize = header.getInt();
+            checkShape(0, inputSize, header.getInt(), 1, path);
+            header.getInt();
+            double[] inputWeights = readDoubles(channel, position, inputSize), inputBiases = readDoubles(channel, position += inputSize * Double.BYTES, inputSize);
+            position += inputSize * Double.BYTES;
+            SparseLayer[] layers = new SparseLayer[layersCount - 1];
+            for (int i = 0; i < layers.length; i++) {
+                int size = header.getInt(), inputsCount = header.getInt();
+                checkShape(i + 1, size, inputsCount, i > 0 ? layers[i - 1].size : inputSize, path);
+                Neuron.Activation activation = ordinal(Neuron.Activation.values(), header.getInt(), path);
+                long count = readFully(channel, position, Long.BYTES).getLong();
+                if (count < 0 || count > (long) size * inputsCount) throw new IOException("Corrupt sparse layer " + (i + 1) + ": " + path);
+                int nonZeros = (int) count;
+                position += Long.BYTES;
+                int[] rowStarts = readInts(channel, position, size + 1);
+                position += padded((long) rowStarts.length * Integer.BYTES);
+                int[] columns = readInts(channel, position, nonZeros);
+                position += padded((long) nonZeros * Integer.BYTES);
+                double[] values = readDoubles(channel, position, nonZeros), biases = readDoubles(channel, position += (long) nonZeros * Double.BYTES, size);
+                position += size * Double.BYTES;
+                if (!isValid(rowStarts, columns, inputsCount)) throw new IOException("Corrupt sparse layer " + (i + 1) + ": " + path);
+                layers[i] = new SparseLayer(size, inputsCount, rowStarts, columns, values, biases, activation);
+            }
+            return new SparseNetwork(inputWeights, inputBiases, layers, initialization);
+        }
+    }
+
+    // rows start at 0, never go back and end at the non-zero count, columns are inputs of the layer
+    private static boolean isValid(int[] rowStarts, int[] columns, int inputsCount) {
+        if (rowStarts[0] != 0 || rowStarts[rowStarts.length - 1] != columns.length) return false;
+        for (int r = 1; r < rowStarts.length; r++) if (rowStarts[r] < rowStarts[r - 1]) return false;
+        for (int column : columns) if (column < 0 || column >= inputsCount) return false;
+        return true;
+    }
+
+    private static int[] readInts(FileChannel channel, long position, int count) throws IOException {
+        checkFits(channel, position, (long) count * Integer.BYTES);
+        int[] values = new int[count];
+        readFully(channel, position, count * Integer.BYTES).asIntBuffer().get(values);
+        return values;
+    }
+
+    // checks magic and version, the buffer is left at the dtype
+    private static ByteBuffer readPrefix(FileChannel channel, Path path) throws IOException {
+        ByteBuffer prefix = readFully(channel, 0, 5 * Integer.BYTES);
+        if (prefix.getInt() != MAGIC) throw new IOException("Not a .dnn model: " + path);
+        int version = prefix.getInt();
+        if (version != VERSION) throw new IOException("Unsupported .dnn version " + version + ": " + path);
+        return prefix;
+    }
+
+    // layers count and sizes are checked against the file before anything is allocated for them
+    private static ByteBuffer readHeader(FileChannel channel, ByteBuffer prefix, int layersCount, Path path) throws IOException {
+        if (layersCount < 2) throw new IOException("Corrupt .dnn layers count " + layersCount + ": " + path);
+        checkFits(channel, 0, 5L * Integer.BYTES + 3L * Integer.BYTES * layersCount);
+        return readFully(channel, prefix.capacity(), headerSize(layersCount) - prefix.capacity());
+    }
+
+    // the input layer has one input per neuron, every other layer one per neuron of the previous layer
+    private static void checkShape(int layer, int size, int inputsCount, int previousSize, Path path) throws IOException {
+        if (size <= 0 || inputsCount != previousSize || (long) size * inputsCount > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt .dnn layer " + layer + ", " + size + " neurons with " + inputsCount + " inputs: " + path);
+        }
+    }
+
+    private static <E extends Enum<E>> E ordinal(E[] values, int ordinal, Path path) throws IOException {
+        if (ordinal < 0 || ordinal >= values.length) {
+            throw new IOException("Unknown " + values.getClass().getComponentType().getSimpleName() + " " + ordinal + " in .dnn model: " + path);
+        }
+        return values[ordinal];
+    }
+
+    // mapping past the end of a writable channel would grow the file instead of failing
+    private static void checkFits(FileChannel channel, long position, long bytes) throws IOException {
+        if (position + bytes > channel.size()) throw new IOException("Truncated .dnn model");
+    }
+
+    private static double[] readDoubles(FileChannel channel, long position, int count) throws IOException {
+        checkFits(channel, position, (long) count * Double.BYTES);
+        double[] values = new double[count];
+        readFully(channel, position, count * Double.BYTES).asDoubleBuffer().get(values);
+        return values;
+    }
+
+    // private mapping: reads come from the page cache, training writes stay in this process
+    private static Storage map(FileChannel channel, FileChannel.MapMode mode, NeuralNetwork.Precision precision, long position, long bytes) throws IOException {
+        checkFits(channel, position, bytes);
+        ByteBuffer buffer = channel.map(mode, position, bytes);
+        if (precision == NeuralNetwork.Precision.DOUBLE) return new BufferStorage(buffer);
+        return new FloatBufferStorage(buffer, precision == NeuralNetwork.Precision.MIXED);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Truncated .dnn model");
+        }
+        return buffer.flip();
+    }
+
+    private static int headerSize(int layersCount) {
+        return (int) padded(5 * Integer.BYTES + 3L * Integer.BYTES * layersCount);
+    }
+
+    private static long padded(long bytes) {
+        return (bytes + Long.BYTES - 1) & -Long.BYTES;
+    }
+
+}
@@ -0,0 +1,36 @@
+package me.hivaze.neural;
+
+import java.util.List;
+
+// Heavy ball: velocity = momentum * velocity + learningSpeed * gradient, weights += velocity
+public class MomentumOptimizer implements Optimizer {
+
+    private final Gradients velocity;
+    private double momentum = 0.9;
+
+    public MomentumOptimizer(NeuralNetwork network) {
+        this.velocity = new Gradients(network);
+    }
+
+    public MomentumOptimizer momentum(double momentum) {
+        assert momentum >= 0 && momentum < 1;
+        this.momentum = momentum;
+        return this;
+    }
+
+    @Override
+    public List<double[]> state() {
+        return velocity.buffers();
+    }
+
+    @Override
+    public void update(NeuronLayer layer, boolean biases, Storage target, double[] corrections, double learningSpeed, int batchSize, int from, int to) {
+        double[] velocity = biases ? this.velocity.getBiases(layer) : this.velocity.getWeights(layer);
+        double scale = learningSpeed / batchSize;
+        for (int i = from; i < to; i++) {
+            double step = velocity[i] = momentum * velocity[i] + scale * corrections[i];
+            target.add(i, step);
+        }
+    }
+
+}
@@ -0,0 +1,339 @@
+package me.hivaze.neural;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Writes a CompiledNetwork subclass for one network. Small layers are unrolled into straight-line code: every
+// weight and bias is a constant, every activation a local variable and the activation function is inlined.
+// Layers past the unroll limits call CompiledNetwork.layer, which goes through the usual kernels.
+// The class is defined as a hidden class on JDK 15+, so it is unloaded with the CompiledNetwork;
+// older JDKs define an ordinary class that lives as long as the class loader
+final class NetworkCompiler {
+
+    // per layer, beyond this the constants stop paying for themselves
+    static final int UNROLL_WEIGHTS = 1024;
+    // HotSpot doesn't compile methods longer than 8000 bytes of bytecode
+    static final int CODE_BUDGET = 7500;
+
+    private static final String SUPER = "me/hivaze/neural/CompiledNetwork", NAME = SUPER + "$Specialized";
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    // JVM specification, chapter 6
+    private static final int ICONST_0 = 0x03, DCONST_0 = 0x0E, DCONST_1 = 0x0F, BIPUSH = 0x10, SIPUSH = 0x11, LDC2_W = 0x14,
+            DLOAD = 0x18, ALOAD = 0x19, DLOAD_0 = 0x26, ALOAD_0 = 0x2A, ALOAD_1 = 0x2B, DALOAD = 0x31,
+            DSTORE = 0x39, ASTORE = 0x3A, DSTORE_0 = 0x47, ASTORE_0 = 0x4B, DASTORE = 0x52,
+            DADD = 0x63, DSUB = 0x67, DMUL = 0x6B, DDIV = 0x6F, DNEG = 0x77,
+            ARETURN = 0xB0, RETURN = 0xB1, INVOKEVIRTUAL = 0xB6, INVOKESPECIAL = 0xB7, INVOKESTATIC = 0xB8, NEWARRAY = 0xBC, WIDE = 0xC4;
+    // newarray element type
+    private static final int T_DOUBLE = 7;
+    // chapter 4: class file version, access flags and constant pool tags
+    private static final int JAVA_8 = 52, ACC_PUBLIC = 0x0001, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+    private static final int CONSTANT_UTF8 = 1, CONSTANT_DOUBLE = 6, CONSTANT_CLASS = 7, CONSTANT_METHODREF = 10, CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ConstantPool pool = new ConstantPool();
+    private final NeuronLayer[] layers;
+    // code of the output method and the next free local variable slot
+    private final Code code = new Code();
+    private int locals = 2;
+
+    private NetworkCompiler(NeuralNetwork network) {
+        NeuralNetwork copy = network.copy();
+        this.layers = new NeuronLayer[copy.getHiddenLayers().length + 2];
+        for (NeuronLayer layer = copy.getInputLayer(); layer != null; layer = layer.getOutput()) layers[layer.getDepth()] = layer;
+    }
+
+    static CompiledNetwork compile(NeuralNetwork network) {
+        NetworkCompiler compiler = new NetworkCompiler(network);
+        String name = NAME + COUNTER.incrementAndGet();
+        byte[] bytes = compiler.classFile(name);
+        try {
+            Class<?> compiled = define(bytes);
+            return (CompiledNetwork) MethodHandles.lookup().findConstructor(compiled, MethodType.methodType(void.class, NeuronLayer[].class))
+                    .invoke(compiler.layers);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not define the compiled network class", e);
+        }
+    }
+
+    private static Class<?> define(byte[] bytes) throws ReflectiveOperationException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        Class<?> options;
+        try {
+            options = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+        } catch (ClassNotFoundException e) {
+            return lookup.defineClass(bytes);
+        }
+        Object noOptions = Array.newInstance(options, 0);
+        Method defineHiddenClass = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, noOptions.getClass());
+        return ((MethodHandles.Lookup) defineHiddenClass.invoke(lookup, bytes, true, noOptions)).lookupClass();
+    }
+
+    private byte[] classFile(String name) {
+        int thisClass = pool.classRef(name), superClass = pool.classRef(SUPER);
+        int constructorName = pool.utf8("<init>"), constructorType = pool.utf8("([Lme/hivaze/neural/NeuronLayer;)V");
+        int superConstructor = pool.methodRef(SUPER, "<init>", "([Lme/hivaze/neural/NeuronLayer;)V");
+        int outputName = pool.utf8("output"), outputType = pool.utf8("([D)[D"), codeName = pool.utf8("Code");
+        Code constructor = new Code();
+        constructor.op(ALOAD_0).op(ALOAD_1).op(INVOKESPECIAL).u2(superConstructor).op(RETURN);
+        writeOutput();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            // Java 8 class file: no branches are generated, so no stack map frames are needed
+            out.writeShort(JAVA_8);
+            pool.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(2);
+            writeMethod(out, 0, constructorName, constructorType, codeName, 2, 2, constructor);
+            writeMethod(out, ACC_PUBLIC, outputName, outputType, codeName, 8, locals, code);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeMethod(DataOutputStream out, int access, int name, int type, int codeName, int maxStack, int maxLocals, Code code) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.size());
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.size());
+        code.writeTo(out);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    // activations live either in consecutive double locals from slot, or in the array in local slot when inArray
+    private void writeOutput() {
+        int slot = 1;
+        boolean inArray = true;
+        for (NeuronLayer layer : layers) {
+            int count = layer.getInputsCount() * layer.getSize();
+            Code unrolled = null;
+            if (count <= UNROLL_WEIGHTS) {
+                int start = locals;
+                unrolled = unrolled(layer, slot, inArray);
+                if (code.size() + unrolled.size() > CODE_BUDGET - 64) {
+                    unrolled = null;
+                    locals = start;
+                }
+            }
+            if (unrolled != null) {
+                code.append(unrolled);
+                slot = locals - 2 * layer.getSize();
+                inArray = false;
+            } else {
+                int inputs = inArray ? slot : pack(slot, layer.getDepth() == 0 ? layer.getSize() : layer.getInputsCount());
+                int result = locals++;
+                // this.layer(depth, inputs, result = new double[size])
+                code.push(layer.getSize()).op(NEWARRAY).op(T_DOUBLE).astore(result);
+                code.op(ALOAD_0).push(layer.getDepth()).aload(inputs).aload(result);
+                code.op(INVOKEVIRTUAL).u2(pool.methodRef(SUPER, "layer", "(I[D[D)V"));
+                slot = result;
+                inArray = true;
+            }
+        }
+        code.aload(inArray ? slot : pack(slot, layers[layers.length - 1].getSize())).op(ARETURN);
+    }
+
+    // copies count double locals from slot into a new array, returns the local holding it
+    private int pack(int slot, int count) {
+        int array = locals++;
+        code.push(count).op(NEWARRAY).op(T_DOUBLE).astore(array);
+        for (int i = 0; i < count; i++) code.aload(array).push(i).dload(slot + 2 * i).op(DASTORE);
+        return array;
+    }
+
+    // out[j] = activation(sum(w[j][i] * in[i]) + b[j]) into new locals; the input layer only scales every input
+    private Code unrolled(NeuronLayer layer, int slot, boolean inArray) {
+        Code code = new Code();
+        int inputsCount = layer.getDepth() == 0 ? layer.getSize() : layer.getInputsCount();
+        if (inArray) {
+            int unpacked = locals;
+            for (int i = 0; i < inputsCount; i++, locals += 2) code.aload(slot).push(i).op(DALOAD).dstore(locals);
+            slot = unpacked;
+        }
+        int outputs = locals;
+        locals += 2 * layer.getSize();
+        Storage weights = layer.getWeights(), biases = layer.getBiases();
+        for (int j = 0; j < layer.getSize(); j++) {
+            if (layer.getDepth() == 0) {
+                code.dload(slot + 2 * j).ldc(pool.doubleConstant(weights.get(j))).op(DMUL);
+            } else {
+                for (int i = 0, offset = j * inputsCount; i < inputsCount; i++) {
+                    code.ldc(pool.doubleConstant(weights.get(offset + i))).dload(slot + 2 * i).op(DMUL);
+                    if (i > 0) code.op(DADD);
+                }
+            }
+            code.ldc(pool.doubleConstant(biases.get(j))).op(DADD);
+            activation(code, layer.getActivation(), outputs + 2 * j);
+        }
+        return code;
+    }
+
+    // raw sum on the stack, stores the activation into target; same arithmetic as Neuron.Activation
+    private void activation(Code code, Neuron.Activation activation, int target) {
+        switch (activation) {
+            case LINEAR:
+                code.dstore(target);
+                break;
+            case TANH:
+                code.op(INVOKESTATIC).u2(pool.methodRef("java/lang/Math", "tanh", "(D)D")).dstore(target);
+                break;
+            case ReLU:
+                code.op(DCONST_0).op(INVOKESTATIC).u2(pool.methodRef("java/lang/Math", "max", "(DD)D")).dstore(target);
+                break;
+            case SIGMOID:
+                // 1 / (1 + exp(-x))
+                code.dstore(target).op(DCONST_1).op(DCONST_1).dload(target).op(DNEG).op(INVOKESTATIC).u2(pool.methodRef("java/lang/Math", "exp", "(D)D"))
+                        .op(DADD).op(DDIV).dstore(target);
+                break;
+            case BIPOLAR_SIGMOID:
+                // 2 / (1 + exp(-x)) - 1
+                code.dstore(target).ldc(pool.doubleConstant(2d)).op(DCONST_1).dload(target).op(DNEG).op(INVOKESTATIC).u2(pool.methodRef("java/lang/Math", "exp", "(D)D"))
+                        .op(DADD).op(DDIV).op(DCONST_1).op(DSUB).dstore(target);
+                break;
+            default:
+                throw new IllegalArgumentException("No compiled form of " + activation);
+        }
+    }
+
+    private static final class Code {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Code op(int opcode) {
+            bytes.write(opcode);
+            return this;
+        }
+
+        Code u2(int value) {
+            bytes.write(value >>> 8);
+            bytes.write(value);
+            return this;
+        }
+
+        Code push(int value) {
+            if (value <= 5) return op(ICONST_0 + value);
+            if (value <= Byte.MAX_VALUE) return op(BIPUSH).op(value);
+            if (value <= Short.MAX_VALUE) return op(SIPUSH).u2(value);
+            throw new IllegalArgumentException("Too many values to compile: " + value);
+        }
+
+        Code ldc(int index) {
+            return op(LDC2_W).u2(index);
+        }
+
+        Code dload(int slot) {
+            return local(DLOAD, DLOAD_0, slot);
+        }
+
+        Code dstore(int slot) {
+            return local(DSTORE, DSTORE_0, slot);
+        }
+
+        Code aload(int slot) {
+            return local(ALOAD, ALOAD_0, slot);
+        }
+
+        Code astore(int slot) {
+            return local(ASTORE, ASTORE_0, slot);
+        }
+
+        // short forms for slots 0-3, wide for slots past 255
+        private Code local(int opcode, int shortForm, int slot) {
+            if (slot <= 3) return op(shortForm + slot);
+            if (slot <= 255) return op(opcode).op(slot);
+            return op(WIDE).op(opcode).u2(slot);
+        }
+
+        Code append(Code other) {
+            byte[] appended = other.bytes.toByteArray();
+            bytes.write(appended, 0, appended.length);
+            return this;
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            bytes.writeTo(out);
+        }
+
+    }
+
+    private static final class ConstantPool {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<Object, Integer> indices = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            return entry("utf8 " + value, 1, () -> out.writeByte(CONSTANT_UTF8), () -> out.writeUTF(value));
+        }
+
+        int classRef(String name) {
+            int nameIndex = utf8(name);
+            return entry("class " + name, 1, () -> out.writeByte(CONSTANT_CLASS), () -> out.writeShort(nameIndex));
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner), nameIndex = utf8(name), descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("nat " + name + descriptor, 1, () -> out.writeByte(CONSTANT_NAME_AND_TYPE), () -> out.writeShort(nameIndex), () -> out.writeShort(descriptorIndex));
+            return entry("method " + owner + "." + name + descriptor, 1, () -> out.writeByte(CONSTANT_METHODREF), () -> out.writeShort(ownerIndex), () -> out.writeShort(nameAndType));
+        }
+
+        // doubles take two pool slots; keyed by bits so that 0.0 and -0.0 stay apart
+        int doubleConstant(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            return entry(bits, 2, () -> out.writeByte(CONSTANT_DOUBLE), () -> out.writeLong(bits));
+        }
+
+        private int entry(Object key, int slots, Write... writes) {
+            Integer index = indices.get(key);
+            if (index != null) return index;
+            if (count + slots > 0xFFFF) throw new IllegalStateException("Constant pool overflow");
+            try {
+                for (Write write : writes) write.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            indices.put(key, count);
+            count += slots;
+            return count - slots;
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            out.flush();
+            target.writeShort(count);
+            bytes.writeTo(target);
+        }
+
+    }
+
+    private interface Write {
+        void run() throws IOException;
+    }
+
+}
@@ -2,7 +2,8 @@ package me.hivaze.neural;
 
 import me.hivaze.utils.Pair;
 
-import java.io.*;
+import java.io.IOException;
+import java.io.Serializable;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
@@ -13,41 +14,76 @@ public class NeuralNetwork {
     private final NeuronLayer inputLayer, outputLayer;
     private final NeuronLayer[] hiddenLayers;
     private final Initialization initializationMethod;
+    private final Precision precision;
+    private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(this::newWorkspace);
 
     public NeuralNetwork(int inputSize, int[] hiddenLayerSizes, int outputSize, Random random, Neuron.Activation activation, Initialization initializationMethod) {
+        this(inputSize, hiddenLayerSizes, outputSize, random, activation, initializationMethod, Precision.DOUBLE);
+    }
+
+    public NeuralNetwork(int inputSize, int[] hiddenLayerSizes, int outputSize, Random random, Neuron.Activation activation, Initialization initializationMethod, Precision precision) {
+        this(inputSize, hiddenLayerSizes, outputSize, random, activation, initializationMethod, precision, Memory.HEAP);
+    }
+
+    public NeuralNetwork(int inputSize, int[] hiddenLayerSizes, int outputSize, Random random, Neuron.Activation activation, Initialization initializationMethod,
+                         Precision precision, Memory memory) {
         this.hiddenLayers = new NeuronLayer[hiddenLayerSizes.length];
-        NeuronLayer parent = inputLayer = new NeuronLayer(inputSize, null, null, random, Neuron.Activation.LINEAR);
-        for (Neuron neuron : inputLayer.getNeurons()) neuron.initializeWeights(1);
+        NeuronLayer parent = inputLayer = new NeuronLayer(inputSize, null, null, random, Neuron.Activation.LINEAR, precision, memory);
+        inputLayer.getWeights().fill(1d);
         for (int i = 0; i < hiddenLayers.length; i++) {
-            parent = this.hiddenLayers[i] = new NeuronLayer(hiddenLayerSizes[i], parent, null, random, activation);
+            parent = this.hiddenLayers[i] = new NeuronLayer(hiddenLayerSizes[i], parent, null, random, activation, precision, memory);
         }
-        this.outputLayer = new NeuronLayer(outputSize, parent, null, random, activation);
+        this.outputLayer = new NeuronLayer(outputSize, parent, null, random, activation, precision, memory);
         this.initializationMethod = initializationMethod;
+        this.precision = precision;
     }
 
-    public NeuralNetwork(Path filePath) throws IOException, ClassNotFoundException {
-        File file = filePath.toFile();
-        assert file.getName().endsWith(".dnn");
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-            this.hiddenLayers = new NeuronLayer[ois.readInt()];
-            Neuron[] neurons = (Neuron[]) ois.readObject();
-            NeuronLayer parent = inputLayer = new NeuronLayer(neurons, null, null);
-            for (int i = 0; i < hiddenLayers.length; i++) {
-                neurons = (Neuron[]) ois.readObject();
-                parent = this.hiddenLayers[i] = new NeuronLayer(neurons, parent, null);
-            }
-            this.outputLayer = new NeuronLayer((Neuron[]) ois.readObject(), parent, null);
-            this.initializationMethod = (Initialization) ois.readObject();
-        }
+    // weights stay memory-mapped from the file, see ModelFormat; layers get an unseeded Random
+    public NeuralNetwork(Path filePath) throws IOException {
+        this(filePath, new Random());
+    }
+
+    // random is shared by the layers like in a constructed network, so randomise, mutation and shuffling reproduce
+    public NeuralNetwork(Path filePath, Random random) throws IOException {
+        this(ModelFormat.read(filePath, random));
+    }
+
+    NeuralNetwork(NeuronLayer[] layers, Initialization initializationMethod, Precision precision) {
+        this.inputLayer = layers[0];
+        this.hiddenLayers = Arrays.copyOfRange(layers, 1, layers.length - 1);
+        this.outputLayer = layers[layers.length - 1];
+        this.initializationMethod = initializationMethod;
+        this.precision = precision;
+    }
+
+    private NeuralNetwork(NeuralNetwork loaded) {
+        this.inputLayer = loaded.inputLayer;
+        this.hiddenLayers = loaded.hiddenLayers;
+        this.outputLayer = loaded.outputLayer;
+        this.initializationMethod = loaded.initializationMethod;
+        this.precision = loaded.precision;
     }
 
     public long mutationTrain(List<Pair<double[]>> trainingDataset, float mutateChance, double minError, long maxIterations) {
-        long iterations = 0;
+        return mutationTrain(trainingDataset, mutateChance, minError, maxIterations, null, 0);
+    }
+
+    // saves every checkpoints' interval iterations; resume first loads the newest one and continues from its
+    // iteration, like BackPropagationTrainer.resume, and fails when the directory has none
+    public long mutationTrain(List<Pair<double[]>> trainingDataset, float mutateChance, double minError, long maxIterations, Checkpoints checkpoints,
+                              boolean resume) throws IOException {
+        Checkpoints.checkRandoms(this);
+        long iterations = resume ? checkpoints.restore(this, Optimizer.SGD) : 0;
+        return mutationTrain(trainingDataset, mutateChance, minError, maxIterations, checkpoints, iterations);
+    }
+
+    private long mutationTrain(List<Pair<double[]>> trainingDataset, float mutateChance, double minError, long maxIterations, Checkpoints checkpoints, long iterations) {
+        Workspace workspace = newWorkspace();
         for (;;) {
             iterations++;
             boolean valid = true;
             inputsLoop: for (Pair<double[]> pair : trainingDataset) {
-                double[] output = output(pair.getFirst());
+                double[] output = output(pair.getFirst(), workspace);
                 for (int j = 0; j < output.length; j++) {
                     double error = Math.abs(pair.getSecond()[j] - output[j]);
                     if (error > minError) {
@@ -61,134 +97,121 @@ public class NeuralNetwork {
                 // Mutation
                 float rate = 0.1f;
                 for (NeuronLayer layer = inputLayer.getOutput(); layer != null; layer = layer.getOutput()) {
-                    for (Neuron neuron : layer.getNeurons()) {
-                        if (neuron.getLocalRandom().nextFloat() <= mutateChance) {
-                            for (int i = 0; i < neuron.getWeights().length; i++) {
-                                neuron.getWeights()[i] += (1 - 2 * neuron.getLocalRandom().nextFloat()) * rate;
+                    Storage weights = layer.getWeights(), biases = layer.getBiases();
+                    Random random = layer.getRandom();
+                    int inputsCount = layer.getInputsCount();
+                    for (int j = 0, offset = 0; j < layer.getSize(); j++, offset += inputsCount) {
+                        if (random.nextFloat() <= mutateChance) {
+                            for (int i = offset; i < offset + inputsCount; i++) {
+                                weights.add(i, (1 - 2 * random.nextFloat()) * rate);
                             }
-                            neuron.setupBias(neuron.getBias() + (1 - 2 * neuron.getLocalRandom().nextFloat()) * rate);
-                            neuron.normalize(1d);
+                            biases.add(j, (1 - 2 * random.nextFloat()) * rate);
+                            layer.normalizeNeuron(j, 1d);
                         }
                     }
                 }
+                if (checkpoints != null && checkpoints.isDue(iterations)) checkpoints.save(this, Optimizer.SGD, iterations);
             } else break;
         }
+        if (checkpoints != null) checkpoints.flush();
         return iterations;
     }
 
     public long backPropagationTrain(List<Pair<double[]>> trainingDataset, double learningSpeed, double[] minAllowedError, long maxIterations) {
-        assert minAllowedError.length == outputLayer.getNeurons().length;
-        assert inputLayer.getNeuron(0).hasCache();
-        long iterations = 0;
-        for (; iterations < maxIterations; iterations++) {
-            double[] currentError = new double[outputLayer.getNeurons().length];
-            for (Pair<double[]> pair : trainingDataset) {
-                double[] clearInput = pair.getFirst(), targetOutput = pair.getSecond();
-                double[] networkAnswer = output(clearInput);
-                double[] errors = new double[networkAnswer.length];
-                for (int j = 0; j < errors.length; j++) {
-                    Neuron outputNeuron = outputLayer.getNeuron(j);
-                    double error = targetOutput[j] - networkAnswer[j];
-                    currentError[j] = Math.max(currentError[j], Math.abs(error));
-                    errors[j] = error * outputNeuron.getActivation().getDerivate().apply(outputNeuron.cache().getRawSum());
-                    for (int k = 0; k < outputNeuron.getWeights().length; k++) {
-                        outputNeuron.cache().correctWeight(k, learningSpeed * errors[j] * outputLayer.getInput().getNeuron(k).cache().getNormalizedSum());
-                    }
-                    outputNeuron.cache().correctBias(learningSpeed * errors[j]);
-                }
-                for (NeuronLayer layer = outputLayer.getInput(); layer != inputLayer; layer = layer.getInput()) {
-                    double[] newErrors = new double[layer.getNeurons().length];
-                    for (int j = 0; j < layer.getNeurons().length; j++) {
-                        Neuron hiddenNeuron = layer.getNeuron(j);
-                        for (int k = 0; k < errors.length; k++) {
-                            newErrors[j] += errors[k] * layer.getOutput().getNeuron(k).getWeights()[j];
-                        }
-                        newErrors[j] *= hiddenNeuron.getActivation().getDerivate().apply(hiddenNeuron.cache().getRawSum());
-                        for (int k = 0; k < hiddenNeuron.getWeights().length; k++) {
-                            hiddenNeuron.cache().correctWeight(k, learningSpeed * newErrors[j] * layer.getInput().getNeuron(k).cache().getNormalizedSum());
-                        }
-                        hiddenNeuron.cache().correctBias(learningSpeed * newErrors[j]);
-                    }
-                    errors = newErrors;
-                }
-                for (NeuronLayer layer = inputLayer.getOutput(); layer != null; layer = layer.getOutput()) {
-                    for (Neuron neuron : layer.getNeurons()) {
-                        neuron.executeCorrection();
-                    }
-                }
-            }
-//            if (iterations % 1000 == 0) System.out.println(iterations + " - " + Arrays.toString(currentError));
-            boolean valid = true;
-            errorCheck: for (int i = 0; i < currentError.length; i++) {
-                if (currentError[i] > minAllowedError[i]) {
-                    valid = false;
-                    break errorCheck;
-                }
-            }
-            if (valid) break;
-            // else TODO: shuffle inputs & target
-        }
-        return iterations;
+        return new BackPropagationTrainer(this).learningSpeed(learningSpeed).train(trainingDataset, minAllowedError, maxIterations);
+    }
+
+    public long backPropagationTrain(Dataset trainingDataset, double learningSpeed, double[] minAllowedError, long maxIterations) {
+        return new BackPropagationTrainer(this).learningSpeed(learningSpeed).train(trainingDataset, minAllowedError, maxIterations);
     }
 
+    // safe to call from many threads at once as long as nobody trains the network meanwhile
     public double[] output(double[] inputs) {
-        assert inputs.length == inputLayer.getNeurons().length;
-        double[] convertedInput = new double[inputs.length];
-        System.arraycopy(inputs, 0, convertedInput, 0, inputs.length);
+        return output(inputs, workspaces.get()).clone();
+    }
+
+    // result is the workspace's own output buffer, valid until the next call with the same workspace
+    public double[] output(double[] inputs, Workspace workspace) {
+        assert inputs.length == inputLayer.getSize();
+        return output(inputs, 1, workspace);
+    }
+
+    // inputs are count samples, row-major; result is the workspace's output buffer, count * output size long
+    public double[] output(double[] inputs, int count, Workspace workspace) {
+        assert inputs.length >= count * inputLayer.getSize() && count <= workspace.getCapacity();
+        double[] convertedInput = inputs;
         for (NeuronLayer layer = inputLayer; layer != null; layer = layer.getOutput()) {
-            convertedInput = layer.output(convertedInput);
+            double[] result = workspace.getNormalizedSums(layer);
+            layer.output(convertedInput, count, workspace.getRawSums(layer), result);
+            convertedInput = result;
         }
         return convertedInput;
     }
 
-    public NeuralNetwork randomise() {
-        for (NeuronLayer layer = inputLayer.getOutput(); layer != null; layer = layer.getOutput()) {
-            for (Neuron neuron : layer.getNeurons()) {
-                for (int i = 0; i < neuron.getWeights().length; i++) {
-                    neuron.getWeights()[i] = 0.5d - neuron.getLocalRandom().nextDouble();
-                }
-                neuron.setupBias(0.5d - neuron.getLocalRandom().nextDouble());
-            }
+    public double[][] output(double[][] inputs) {
+        int inputSize = inputLayer.getSize(), outputSize = outputLayer.getSize();
+        double[] packed = new double[inputs.length * inputSize];
+        for (int i = 0; i < inputs.length; i++) {
+            assert inputs[i].length == inputSize;
+            System.arraycopy(inputs[i], 0, packed, i * inputSize, inputSize);
         }
-        if (initializationMethod == Initialization.NGUYEN_WIDROW) {
-            for (NeuronLayer layer = inputLayer.getOutput(); layer != outputLayer; layer = layer.getOutput()) {
-                int neuronsCount = layer.getNeurons().length;
-                int inputNeuronsCount = layer.getInput().getNeurons().length;
-                double beta = 0.7d * Math.pow(neuronsCount, 1d / inputNeuronsCount);
-                for (Neuron neuron : layer.getNeurons()) {
-                    double sum = 0;
-                    for (int i = 0; i < neuron.getWeights().length; i++) {
-                        sum += Math.pow(neuron.getWeights()[i], 2);
-                    }
-                    sum = Math.sqrt(sum);
-                    for (int i = 0; i < neuron.getWeights().length; i++) {
-                        neuron.getWeights()[i] = beta * neuron.getWeights()[i] / sum;
-                    }
-                    neuron.setupBias((1 - 2 * neuron.getLocalRandom().nextDouble()) * beta);
-                }
-            }
+        double[] answers = output(packed, inputs.length, newWorkspace(inputs.length));
+        double[][] result = new double[inputs.length][];
+        for (int i = 0; i < inputs.length; i++) {
+            result[i] = Arrays.copyOfRange(answers, i * outputSize, (i + 1) * outputSize);
         }
+        return result;
+    }
+
+    public Workspace newWorkspace() {
+        return newWorkspace(1);
+    }
+
+    public Workspace newWorkspace(int batchSize) {
+        return new Workspace(this, batchSize);
+    }
+
+    // on every available core, see randomise(int)
+    public NeuralNetwork randomise() {
+        return randomise(Runtime.getRuntime().availableProcessors());
+    }
+
+    // one seed per layer is drawn from its random, the weights are then the same whatever the parallelism
+    public NeuralNetwork randomise(int parallelism) {
+        assert parallelism > 0;
+        WeightInitializer.randomise(this, parallelism);
         return this;
     }
 
+    // trainers own their workspaces and gradient buffers now, nothing to enable
+    @Deprecated
     public NeuralNetwork enableStateCaches() {
+        return this;
+    }
+
+    // straight-line class specialised for this topology and these weights, see CompiledNetwork
+    public CompiledNetwork compile() {
+        return NetworkCompiler.compile(this);
+    }
+
+    // heap copy of the weights with the same shape, precision and randoms
+    NeuralNetwork copy() {
+        NeuronLayer[] layers = new NeuronLayer[hiddenLayers.length + 2];
         for (NeuronLayer layer = inputLayer; layer != null; layer = layer.getOutput()) {
-            for (Neuron neuron : layer.getNeurons()) {
-                neuron.enableCache();
-            }
+            Storage weights = Storage.allocate(layer.getWeights().length(), precision), biases = Storage.allocate(layer.getBiases().length(), precision);
+            double[] values = new double[Math.max(weights.length(), biases.length())];
+            layer.getWeights().copyTo(values);
+            weights.copyFrom(values);
+            layer.getBiases().copyTo(values);
+            biases.copyFrom(values);
+            int depth = layer.getDepth();
+            layers[depth] = new NeuronLayer(layer.getSize(), layer.getInputsCount(), weights, biases, depth > 0 ? layers[depth - 1] : null, null, layer.getRandom(), layer.getActivation());
         }
-        return this;
+        return new NeuralNetwork(layers, initializationMethod, precision);
     }
 
     public NeuralNetwork saveTo(Path path) throws IOException {
-        File file = path.toFile();
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
-            oos.writeInt(hiddenLayers.length);
-            for (NeuronLayer layer = inputLayer; layer != null; layer = layer.getOutput()) {
-                oos.writeObject(layer.getNeurons());
-            }
-            oos.writeObject(initializationMethod);
-        }
+        ModelFormat.write(this, path);
         return this;
     }
 
@@ -208,12 +231,31 @@ public class NeuralNetwork {
         return initializationMethod;
     }
 
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    // sum of the layers' versions, grows whenever any weight or bias changes
+    public long getVersion() {
+        long version = 0;
+        for (NeuronLayer layer = inputLayer; layer != null; layer = layer.getOutput()) version += layer.getVersion();
+        return version;
+    }
+
     @Override
     public String toString() {
         return "NeuralNetwork{" + "inputLayer=" + inputLayer + ", outputLayer=" + outputLayer + ", hiddenLayers=" + Arrays.toString(hiddenLayers) + ", initializationMethod=" + initializationMethod + '}';
     }
 
 
-    public enum Initialization implements Serializable { RANDOM, NGUYEN_WIDROW }
+    // XAVIER is Glorot uniform, HE is He normal, both with zero biases
+    public enum Initialization implements Serializable { RANDOM, NGUYEN_WIDROW, XAVIER, HE }
+
+    // storage type of weights and biases; FLOAT also sums in float, MIXED sums float weights in double
+    public enum Precision { DOUBLE, FLOAT, MIXED }
+
+    // where constructed networks keep weights and biases: java arrays, or direct buffers that the GC never
+    // copies or scans and that are freed once the network is unreachable. Loaded models are always mapped
+    public enum Memory { HEAP, OFF_HEAP }
 
 }
\ No newline at end of file
@@ -3,103 +3,144 @@ package me.hivaze.neural;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Random;
-import java.util.function.Function;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 
-public class Neuron implements Serializable {
+public class Neuron {
 
-    private final double[] weights;
-    private double bias = 0;
+    // a view over one row of the owning layer's flat weight matrix
+    private final NeuronLayer layer;
+    private final int index;
+    private Cache cache;
 
-    private final Random localRandom;
-    private final Activation activation;
-    private transient Cache cache;
+    Neuron(NeuronLayer layer, int index) {
+        this.layer = layer;
+        this.index = index;
+    }
 
+    // a lone neuron with a one-row layer of its own; networks make their neurons as views over their layers
+    @Deprecated
     public Neuron(int inputs, Random random, Activation activation) {
-        this.weights = new double[inputs];
-        this.localRandom = random;
-        this.activation = activation;
-        this.cache = null;
+        this(new NeuronLayer(1, inputs, Storage.allocate(inputs), Storage.allocate(1), null, null, random, activation), 0);
     }
 
     public double output(double[] inputs, int startFromInput) {
-        assert inputs.length >= weights.length; // for the first layer inputs.length
-        double sum = 0;
-        for (int i = 0; i < weights.length; sum += inputs[startFromInput + i] * weights[i], i++);
-        sum += bias;
+        assert inputs.length >= startFromInput + layer.getInputsCount(); // for the first layer inputs.length
+        double sum = layer.getWeights().dot(offset(), inputs, startFromInput, layer.getInputsCount()) + getBias();
         if (cache != null) cache.rawSum = sum;
-        sum = activation.function.apply(sum);
+        sum = getActivation().apply(sum);
         if (cache != null) cache.normalizedSum = sum;
         return sum;
     }
 
     public Neuron normalize(double range) {
-        assert range > 0;
-        for (int i = 0; i < weights.length; i++) {
-            if (weights[i] < -range) weights[i] = -range;
-            else if (weights[i] > range) weights[i] = range;
-        }
-        if (bias < -range) bias = -range;
-        if (bias > range) bias = range;
+        layer.normalizeNeuron(index, range);
         return this;
     }
 
     public Neuron initializeWeights(double value) {
-        Arrays.fill(weights, value);
+        for (int i = 0; i < layer.getInputsCount(); i++) layer.getWeights().set(offset() + i, value);
+        layer.modified();
         return this;
     }
 
     public Neuron setupBias(double bias) {
-        this.bias = bias;
+        layer.getBiases().set(index, bias);
+        layer.modified();
         return this;
     }
 
+    public int getWeightsCount() {
+        return layer.getInputsCount();
+    }
+
+    public double getWeight(int input) {
+        return layer.getWeights().get(offset() + input);
+    }
+
+    public Neuron setWeight(int input, double weight) {
+        layer.getWeights().set(offset() + input, weight);
+        layer.modified();
+        return this;
+    }
+
+    // adds the corrections of the cache to the weights and the bias, trainers work on whole layers instead
+    @Deprecated
     public Neuron executeCorrection() {
-        for (int i = 0; i < cache.weightCorrection.length; i++) {
-            this.weights[i] += cache.weightCorrection[i];
-        }
-        this.bias += cache.biasCorrection;
+        Storage weights = layer.getWeights();
+        for (int i = 0; i < cache.weightCorrection.length; i++) weights.add(offset() + i, cache.weightCorrection[i]);
+        layer.getBiases().add(index, cache.biasCorrection);
+        layer.modified();
         return this;
     }
 
-    public double[] getWeights() {
+    // copy of this neuron's row, writes go through setWeight
+    public double[] copyWeights() {
+        double[] weights = new double[layer.getInputsCount()];
+        for (int i = 0; i < weights.length; i++) weights[i] = getWeight(i);
         return weights;
     }
 
+    // used to be the live weights and is a copy since they moved into the layer's matrix: writes to it are lost,
+    // use setWeight or the layer's getWeights()
+    @Deprecated
+    public double[] getWeights() {
+        return copyWeights();
+    }
+
     public double getBias() {
-        return bias;
+        return layer.getBiases().get(index);
     }
 
     public Random getLocalRandom() {
-        return localRandom;
+        return layer.getRandom();
     }
 
     public Activation getActivation() {
-        return activation;
+        return layer.getActivation();
     }
 
+    public NeuronLayer getLayer() {
+        return layer;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    @Deprecated
     public Cache cache() {
         return cache;
     }
 
+    @Deprecated
     public Neuron enableCache() {
-        if (cache == null) cache = new Cache(weights.length);
+        if (cache == null) cache = new Cache(layer.getInputsCount());
         return this;
     }
 
+    @Deprecated
     public Neuron disableCache() {
         cache = null;
         return this;
     }
 
+    @Deprecated
     public boolean hasCache() {
         return cache != null;
     }
 
+    private int offset() {
+        return index * layer.getInputsCount();
+    }
+
     @Override
     public String toString() {
-        return "Neuron{" + "weights=" + Arrays.toString(weights) + ", bias=" + bias + ", activation=" + activation + '}';
+        return "Neuron{" + "weights=" + Arrays.toString(copyWeights()) + ", bias=" + getBias() + ", activation=" + getActivation() + '}';
     }
 
+    // sums of the last output and corrections for executeCorrection, trainers keep theirs in Gradients and Workspace now
+    @Deprecated
     public static class Cache {
 
         private double rawSum = 0, normalizedSum = 0;
@@ -135,46 +176,62 @@ public class Neuron implements Serializable {
 
     }
 
-
     public enum Activation implements Serializable {
 
-        LINEAR(x -> x, x -> 1d),
+        LINEAR(x -> x, (x, y) -> 1d),
 
-        TANH(Math::tanh, x -> 1d - Math.pow(Math.tanh(x), 2)),
+        TANH(Math::tanh, (x, y) -> 1d - y * y),
 
-        ReLU(x -> Math.max(0, x), x -> {
+        ReLU(x -> Math.max(0, x), (x, y) -> {
             if (x < 0) return 0d;
             if (x == 0) return Double.NaN;
             else return 1d;
         }),
 
-        SIGMOID(x -> 1d / (1d + Math.pow(Math.E, -x)),
-                x -> {
-                    double temp = 1d / (1d + Math.pow(Math.E, -x));
-                    return temp * (1 - temp);
-                }),
+        SIGMOID(x -> 1d / (1d + Math.exp(-x)), (x, y) -> y * (1 - y)),
 
-        BIPOLAR_SIGMOID(x -> 2d / (1d + Math.pow(Math.E, -x)) - 1d,
-                x -> {
-                    double temp = 2d / (1d + Math.pow(Math.E, -x)) - 1d;
-                    return 0.5d * (1 + temp) * (1 - temp);
-                });
+        BIPOLAR_SIGMOID(x -> 2d / (1d + Math.exp(-x)) - 1d, (x, y) -> 0.5d * (1 + y) * (1 - y));
 
-        private final Function<Double, Double> function, derivate;
+        private final DoubleUnaryOperator function;
+        // (rawSum, normalizedSum) -> derivative at rawSum, normalizedSum is function(rawSum)
+        private final DoubleBinaryOperator derivate;
 
-        Activation(Function<Double, Double> function, Function<Double, Double> derivate) {
+        Activation(DoubleUnaryOperator function, DoubleBinaryOperator derivate) {
             this.function = function;
             this.derivate = derivate;
         }
 
-        public Function<Double, Double> getFunction() {
+        public double apply(double rawSum) {
+            return function.applyAsDouble(rawSum);
+        }
+
+        public double derivate(double rawSum, double normalizedSum) {
+            return derivate.applyAsDouble(rawSum, normalizedSum);
+        }
+
+        public void apply(double[] rawSums, double[] result, int length) {
+            if (this == LINEAR) {
+                if (rawSums != result) System.arraycopy(rawSums, 0, result, 0, length);
+                return;
+            }
+            Kernels.activate(this, rawSums, result, length);
+        }
+
+        // errors[i] *= derivate(rawSums[i], normalizedSums[i])
+        public void scaleByDerivate(double[] rawSums, double[] normalizedSums, double[] errors, int length) {
+            if (this == LINEAR) return;
+            DoubleBinaryOperator derivate = this.derivate;
+            for (int i = 0; i < length; i++) errors[i] *= derivate.applyAsDouble(rawSums[i], normalizedSums[i]);
+        }
+
+        public DoubleUnaryOperator getFunction() {
             return function;
         }
 
-        public Function<Double, Double> getDerivate() {
+        public DoubleBinaryOperator getDerivate() {
             return derivate;
         }
 
     }
 
-}
\ No newline at end of file
+}
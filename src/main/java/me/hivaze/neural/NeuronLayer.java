@@ -2,29 +2,35 @@ package me.hivaze.neural;
 
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class NeuronLayer {
 
-    private final Neuron[] neurons;
+    private final int size, inputsCount, depth;
+    // row-major: weights of neuron i are [i * inputsCount, (i + 1) * inputsCount)
+    private final Storage weights, biases;
+    private final Random random;
+    private final Neuron.Activation activation;
+    // bumped after every change of weights or biases, see NeuralNetwork.getVersion
+    private final AtomicLong version = new AtomicLong();
+    private Neuron[] neurons;
     private transient NeuronLayer input = null, output = null;
 
-    NeuronLayer(int neurons, NeuronLayer input, NeuronLayer output, Random random, Neuron.Activation activation) {
-        this.neurons = new Neuron[neurons];
-        for (int i = 0; i < neurons; i++) {
-            this.neurons[i] = new Neuron(input != null ? input.neurons.length : 1, random, activation);
-        }
-        if (input != null) {
-            this.input = input;
-            input.output = this;
-        }
-        if (output != null) {
-            this.output = output;
-            output.input = this;
-        }
+    NeuronLayer(int neurons, NeuronLayer input, NeuronLayer output, Random random, Neuron.Activation activation, NeuralNetwork.Precision precision,
+                NeuralNetwork.Memory memory) {
+        this(neurons, input != null ? input.size : 1, Storage.allocate(neurons * (input != null ? input.size : 1), precision, memory),
+                Storage.allocate(neurons, precision, memory), input, output, random, activation);
     }
 
-    NeuronLayer(Neuron[] neurons, NeuronLayer input, NeuronLayer output) {
-        this.neurons = neurons;
+    NeuronLayer(int neurons, int inputsCount, Storage weights, Storage biases, NeuronLayer input, NeuronLayer output, Random random, Neuron.Activation activation) {
+        this.size = neurons;
+        this.inputsCount = inputsCount;
+        this.weights = weights;
+        this.biases = biases;
+        assert this.weights.length() == neurons * inputsCount && this.biases.length() == neurons;
+        this.random = random;
+        this.activation = activation;
+        this.depth = input != null ? input.depth + 1 : 0;
         if (input != null) {
             this.input = input;
             input.output = this;
@@ -36,13 +42,58 @@ public class NeuronLayer {
     }
 
     public double[] output(double[] inputs) {
-        double[] result = new double[neurons.length];;
-        for (int i = 0; i < neurons.length; i++) {
-            result[i] = neurons[i].output(inputs, input == null ? i : 0);
-        }
+        double[] result = new double[size];
+        output(inputs, result, result);
         return result;
     }
 
+    // reads only weights, so any number of threads may call it with their own buffers
+    public void output(double[] inputs, double[] rawSums, double[] result) {
+        output(inputs, 1, rawSums, result);
+    }
+
+    // inputs and result are row-major batches of samples
+    public void output(double[] inputs, int samples, double[] rawSums, double[] result) {
+        if (input == null) {
+            // input layer: every neuron sees only its own input
+            for (int s = 0, offset = 0; s < samples; s++, offset += size) {
+                for (int i = 0; i < size; i++) rawSums[offset + i] = inputs[offset + i] * weights.get(i);
+            }
+        } else if (samples == 1) {
+            weights.gemv(size, inputsCount, inputs, rawSums);
+        } else {
+            weights.gemm(size, inputsCount, inputs, samples, rawSums);
+        }
+        for (int s = 0, offset = 0; s < samples; s++, offset += size) {
+            for (int i = 0; i < size; i++) rawSums[offset + i] += biases.get(i);
+        }
+        activation.apply(rawSums, result, samples * size);
+    }
+
+    public NeuronLayer normalize(double range) {
+        assert range > 0;
+        weights.clamp(0, weights.length(), range);
+        biases.clamp(0, biases.length(), range);
+        modified();
+        return this;
+    }
+
+    void normalizeNeuron(int index, double range) {
+        assert range > 0;
+        weights.clamp(index * inputsCount, (index + 1) * inputsCount, range);
+        biases.clamp(index, index + 1, range);
+        modified();
+    }
+
+    // everything in this library calls it after writing weights or biases, do the same after writing through getWeights() or getBiases()
+    public void modified() {
+        version.incrementAndGet();
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
     public boolean isHiddenLayer() {
         return input != null && output != null;
     }
@@ -63,17 +114,50 @@ public class NeuronLayer {
         return output;
     }
 
+    public int getSize() {
+        return size;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getInputsCount() {
+        return inputsCount;
+    }
+
+    public Storage getWeights() {
+        return weights;
+    }
+
+    public Storage getBiases() {
+        return biases;
+    }
+
+    public Random getRandom() {
+        return random;
+    }
+
+    public Neuron.Activation getActivation() {
+        return activation;
+    }
+
     public Neuron getNeuron(int index) {
-        return neurons[index];
+        return getNeurons()[index];
     }
 
     public Neuron[] getNeurons() {
+        if (neurons == null) {
+            Neuron[] views = new Neuron[size];
+            for (int i = 0; i < size; i++) views[i] = new Neuron(this, i);
+            neurons = views;
+        }
         return neurons;
     }
 
     @Override
     public String toString() {
-        return "NeuronLayer{" + "neurons=" + Arrays.toString(neurons) + '}';
+        return "NeuronLayer{" + "neurons=" + Arrays.toString(getNeurons()) + '}';
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,23 @@
+package me.hivaze.neural;
+
+import java.util.List;
+
+// Turns the summed corrections of a batch into a weight update. Corrections point downhill, the mean
+// descent direction of element i is corrections[i] / batchSize. State is kept in flat buffers laid out
+// like the weights, updates must not allocate and touch only [from, to) so stripes can run in parallel
+public interface Optimizer {
+
+    Optimizer SGD = (layer, biases, target, corrections, learningSpeed, batchSize, from, to) ->
+            target.addScaled(learningSpeed / batchSize, corrections, from, to);
+
+    // called once per batch before any update of it
+    default void nextStep() {}
+
+    // every array holding state between batches; checkpoints copy them and write them back in place on resume
+    default List<double[]> state() {
+        return List.of();
+    }
+
+    void update(NeuronLayer layer, boolean biases, Storage target, double[] corrections, double learningSpeed, int batchSize, int from, int to);
+
+}
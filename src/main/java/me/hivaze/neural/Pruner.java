@@ -0,0 +1,108 @@
+package me.hivaze.neural;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+// Magnitude pruning: zeroes the smallest weights of every layer but the input one in place. Either everything
+// below a threshold or the smallest share of weights, ranked over the whole network or within each layer.
+// Biases are kept. Fine-tune with the returned mask, then make a SparseNetwork for inference
+public class Pruner {
+
+    private final NeuralNetwork network;
+    private double threshold = Double.NaN, sparsity = Double.NaN;
+    private Scope scope = Scope.GLOBAL;
+
+    public Pruner(NeuralNetwork network) {
+        this.network = network;
+    }
+
+    // prune weights with magnitude below the threshold
+    public Pruner threshold(double threshold) {
+        if (threshold < 0) throw new IllegalArgumentException("Threshold can't be negative");
+        this.threshold = threshold;
+        this.sparsity = Double.NaN;
+        return this;
+    }
+
+    // prune this share of the weights, the smallest first
+    public Pruner sparsity(double sparsity) {
+        if (sparsity < 0 || sparsity > 1) throw new IllegalArgumentException("Sparsity must be within [0, 1]");
+        this.sparsity = sparsity;
+        this.threshold = Double.NaN;
+        return this;
+    }
+
+    // where the smallest weights are ranked when pruning to a sparsity
+    public Pruner scope(Scope scope) {
+        this.scope = scope;
+        return this;
+    }
+
+    public PruningMask prune() {
+        if (Double.isNaN(threshold) && Double.isNaN(sparsity)) throw new IllegalStateException("Set a threshold or a sparsity first");
+        int layersCount = network.getHiddenLayers().length + 2;
+        BitSet[] pruned = new BitSet[layersCount];
+        int[] lengths = new int[layersCount];
+        pruned[0] = new BitSet();
+        for (NeuronLayer layer = network.getInputLayer().getOutput(); layer != null; layer = layer.getOutput()) {
+            pruned[layer.getDepth()] = new BitSet(layer.getWeights().length());
+            lengths[layer.getDepth()] = layer.getWeights().length();
+        }
+        if (!Double.isNaN(threshold)) {
+            for (NeuronLayer layer = network.getInputLayer().getOutput(); layer != null; layer = layer.getOutput()) {
+                prune(layer, pruned[layer.getDepth()], threshold, 0);
+            }
+        } else if (scope == Scope.GLOBAL) {
+            long total = 0;
+            for (int length : lengths) total += length;
+            double[] magnitudes = new double[Math.toIntExact(total)];
+            int offset = 0;
+            for (NeuronLayer layer = network.getInputLayer().getOutput(); layer != null; layer = layer.getOutput()) {
+                offset = magnitudes(layer, magnitudes, offset);
+            }
+            pruneSmallest(magnitudes, (int) Math.round(sparsity * total), pruned, network.getInputLayer().getOutput(), null);
+        } else {
+            for (NeuronLayer layer = network.getInputLayer().getOutput(); layer != null; layer = layer.getOutput()) {
+                double[] magnitudes = new double[layer.getWeights().length()];
+                magnitudes(layer, magnitudes, 0);
+                pruneSmallest(magnitudes, (int) Math.round(sparsity * magnitudes.length), pruned, layer, layer.getOutput());
+            }
+        }
+        return new PruningMask(pruned, lengths);
+    }
+
+    // magnitudes are those of layers [first, end) in order
+    private static void pruneSmallest(double[] magnitudes, int count, BitSet[] pruned, NeuronLayer first, NeuronLayer end) {
+        if (count == 0) return;
+        double[] sorted = magnitudes.clone();
+        Arrays.sort(sorted);
+        double limit = sorted[count - 1];
+        // everything below the limit goes, then as many ties as still needed in layer order
+        int ties = count;
+        for (double magnitude : magnitudes) if (magnitude < limit) ties--;
+        for (NeuronLayer layer = first; layer != end; layer = layer.getOutput()) ties = prune(layer, pruned[layer.getDepth()], limit, ties);
+    }
+
+    // zeroes weights below the limit and up to ties ones equal to it, returns the ties left
+    private static int prune(NeuronLayer layer, BitSet pruned, double limit, int ties) {
+        Storage weights = layer.getWeights();
+        for (int i = 0; i < weights.length(); i++) {
+            double magnitude = Math.abs(weights.get(i));
+            if (magnitude < limit || magnitude == limit && ties-- > 0) {
+                weights.set(i, 0);
+                pruned.set(i);
+            }
+        }
+        layer.modified();
+        return Math.max(0, ties);
+    }
+
+    private static int magnitudes(NeuronLayer layer, double[] magnitudes, int offset) {
+        Storage weights = layer.getWeights();
+        for (int i = 0; i < weights.length(); i++) magnitudes[offset++] = Math.abs(weights.get(i));
+        return offset;
+    }
+
+    public enum Scope { GLOBAL, LAYER }
+
+}
@@ -0,0 +1,42 @@
+package me.hivaze.neural;
+
+import java.util.BitSet;
+
+// Which weights Pruner removed, a set bit per pruned weight of every layer but the input one.
+// Give it to BackPropagationTrainer.mask to fine-tune while the pruned weights stay at zero
+public final class PruningMask {
+
+    private final BitSet[] pruned;
+    private final int[] lengths;
+
+    PruningMask(BitSet[] pruned, int[] lengths) {
+        this.pruned = pruned;
+        this.lengths = lengths;
+    }
+
+    // share of pruned weights over all layers but the input one
+    public double getSparsity() {
+        long count = 0, total = 0;
+        for (int depth = 1; depth < pruned.length; depth++) {
+            count += pruned[depth].cardinality();
+            total += lengths[depth];
+        }
+        return total == 0 ? 0 : (double) count / total;
+    }
+
+    public double getSparsity(int depth) {
+        return depth == 0 || lengths[depth] == 0 ? 0 : (double) pruned[depth].cardinality() / lengths[depth];
+    }
+
+    // zeroes values[i] for every pruned weight i in [from, to) of the layer
+    void clear(NeuronLayer layer, double[] values, int from, int to) {
+        BitSet bits = pruned[layer.getDepth()];
+        for (int i = bits.nextSetBit(from); i >= 0 && i < to; i = bits.nextSetBit(i + 1)) values[i] = 0;
+    }
+
+    void clear(NeuronLayer layer, Storage weights, int from, int to) {
+        BitSet bits = pruned[layer.getDepth()];
+        for (int i = bits.nextSetBit(from); i >= 0 && i < to; i = bits.nextSetBit(i + 1)) weights.set(i, 0);
+    }
+
+}
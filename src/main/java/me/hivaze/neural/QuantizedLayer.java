@@ -0,0 +1,50 @@
+package me.hivaze.neural;
+
+// Int8 weights with a scale per row (or one repeated for the whole layer) and zero-point 0.
+// Inputs are quantized to int8 codes with the calibrated scale and zero-point, products are summed in int:
+// raw[r] = scales[r] * inputScale * (sum(w[r][c] * code[c]) - inputZeroPoint * sum(w[r][c])) + biases[r]
+final class QuantizedLayer {
+
+    final int size, inputsCount;
+    final byte[] weights;
+    final double[] scales, biases;
+    final int[] rowSums;
+    final Neuron.Activation activation;
+    final double inputScale;
+    final int inputZeroPoint;
+
+    QuantizedLayer(int size, int inputsCount, byte[] weights, double[] scales, double[] biases, Neuron.Activation activation, double inputScale, int inputZeroPoint) {
+        this.size = size;
+        this.inputsCount = inputsCount;
+        this.weights = weights;
+        this.scales = scales;
+        this.biases = biases;
+        this.activation = activation;
+        this.inputScale = inputScale;
+        this.inputZeroPoint = inputZeroPoint;
+        this.rowSums = new int[size];
+        for (int r = 0, offset = 0; r < size; r++, offset += inputsCount) {
+            for (int c = offset; c < offset + inputsCount; c++) rowSums[r] += weights[c];
+        }
+    }
+
+    void output(double[] inputs, byte[] codes, double[] rawSums, double[] result) {
+        double inverse = 1 / inputScale;
+        for (int c = 0; c < inputsCount; c++) codes[c] = quantize(inputs[c], inverse, inputZeroPoint);
+        for (int r = 0, offset = 0; r < size; r++, offset += inputsCount) {
+            int sum = Kernels.dot(weights, offset, codes, inputsCount) - inputZeroPoint * rowSums[r];
+            rawSums[r] = scales[r] * inputScale * sum + biases[r];
+        }
+        activation.apply(rawSums, result, size);
+    }
+
+    static byte quantize(double value, double inverseScale, int zeroPoint) {
+        long code = Math.round(value * inverseScale) + zeroPoint;
+        return (byte) Math.max(-128, Math.min(127, code));
+    }
+
+    long bytes() {
+        return weights.length + (long) (scales.length + biases.length) * Double.BYTES;
+    }
+
+}
@@ -0,0 +1,99 @@
+package me.hivaze.neural;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// Inference-only int8 copy of a trained network, made by Quantizer. The input layer stays in double,
+// every other layer is a QuantizedLayer. Saved in the .dnn container with the int8 dtype
+public class QuantizedNetwork {
+
+    private final double[] inputWeights, inputBiases;
+    private final QuantizedLayer[] layers;
+    private final NeuralNetwork.Initialization initializationMethod;
+    private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+    QuantizedNetwork(double[] inputWeights, double[] inputBiases, QuantizedLayer[] layers, NeuralNetwork.Initialization initializationMethod) {
+        this.inputWeights = inputWeights;
+        this.inputBiases = inputBiases;
+        this.layers = layers;
+        this.initializationMethod = initializationMethod;
+    }
+
+    public QuantizedNetwork(Path filePath) throws IOException {
+        this(ModelFormat.readQuantized(filePath));
+    }
+
+    private QuantizedNetwork(QuantizedNetwork loaded) {
+        this(loaded.inputWeights, loaded.inputBiases, loaded.layers, loaded.initializationMethod);
+    }
+
+    // safe to call from many threads at once
+    public double[] output(double[] inputs) {
+        assert inputs.length == inputWeights.length;
+        Buffers buffers = this.buffers.get();
+        double[] activations = buffers.activations[0];
+        for (int i = 0; i < inputs.length; i++) activations[i] = inputs[i] * inputWeights[i] + inputBiases[i];
+        for (int l = 0; l < layers.length; l++) {
+            layers[l].output(activations, buffers.codes, buffers.rawSums, buffers.activations[l + 1]);
+            activations = buffers.activations[l + 1];
+        }
+        return activations.clone();
+    }
+
+    public QuantizedNetwork saveTo(Path path) throws IOException {
+        ModelFormat.writeQuantized(this, path);
+        return this;
+    }
+
+    public int getInputSize() {
+        return inputWeights.length;
+    }
+
+    public int getOutputSize() {
+        return layers[layers.length - 1].size;
+    }
+
+    // weights, scales and biases of every layer
+    public long getParameterBytes() {
+        long bytes = (long) (inputWeights.length + inputBiases.length) * Double.BYTES;
+        for (QuantizedLayer layer : layers) bytes += layer.bytes();
+        return bytes;
+    }
+
+    public NeuralNetwork.Initialization getInitializationMethod() {
+        return initializationMethod;
+    }
+
+    double[] getInputWeights() {
+        return inputWeights;
+    }
+
+    double[] getInputBiases() {
+        return inputBiases;
+    }
+
+    QuantizedLayer[] getLayers() {
+        return layers;
+    }
+
+    private class Buffers {
+
+        private final double[][] activations = new double[layers.length + 1][];
+        private final double[] rawSums;
+        private final byte[] codes;
+
+        Buffers() {
+            int widest = inputWeights.length, widestInput = 0;
+            activations[0] = new double[inputWeights.length];
+            for (int l = 0; l < layers.length; l++) {
+                activations[l + 1] = new double[layers[l].size];
+                widest = Math.max(widest, layers[l].size);
+                widestInput = Math.max(widestInput, layers[l].inputsCount);
+            }
+            this.rawSums = new double[widest];
+            this.codes = new byte[widestInput];
+        }
+
+    }
+
+}
@@ -0,0 +1,78 @@
+package me.hivaze.neural;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Post-training int8 quantization. Weights are scaled symmetrically per row or per layer, activation ranges
+// of every layer input come from running the float network over calibration samples
+public class Quantizer {
+
+    private final NeuralNetwork network;
+    private Granularity granularity = Granularity.ROW;
+
+    public Quantizer(NeuralNetwork network) {
+        this.network = network;
+    }
+
+    public Quantizer granularity(Granularity granularity) {
+        this.granularity = granularity;
+        return this;
+    }
+
+    public QuantizedNetwork quantize(List<double[]> calibrationInputs) {
+        assert !calibrationInputs.isEmpty();
+        int layersCount = network.getHiddenLayers().length + 2;
+        // ranges always include 0 so that zero activations stay exact
+        double[] min = new double[layersCount], max = new double[layersCount];
+        Workspace workspace = network.newWorkspace();
+        for (double[] inputs : calibrationInputs) {
+            network.output(inputs, workspace);
+            for (NeuronLayer layer = network.getInputLayer(); layer.getOutput() != null; layer = layer.getOutput()) {
+                for (double value : workspace.getNormalizedSums(layer)) {
+                    min[layer.getDepth()] = Math.min(min[layer.getDepth()], value);
+                    max[layer.getDepth()] = Math.max(max[layer.getDepth()], value);
+                }
+            }
+        }
+        NeuronLayer inputLayer = network.getInputLayer();
+        double[] inputWeights = new double[inputLayer.getSize()], inputBiases = new double[inputLayer.getSize()];
+        inputLayer.getWeights().copyTo(inputWeights);
+        inputLayer.getBiases().copyTo(inputBiases);
+        QuantizedLayer[] layers = new QuantizedLayer[layersCount - 1];
+        for (NeuronLayer layer = inputLayer.getOutput(); layer != null; layer = layer.getOutput()) {
+            int source = layer.getInput().getDepth();
+            double inputScale = max[source] > min[source] ? (max[source] - min[source]) / 255 : 1;
+            int inputZeroPoint = (int) Math.max(-128, Math.min(127, Math.round(-128 - min[source] / inputScale)));
+            layers[layer.getDepth() - 1] = quantize(layer, inputScale, inputZeroPoint);
+        }
+        return new QuantizedNetwork(inputWeights, inputBiases, layers, network.getInitializationMethod());
+    }
+
+    private QuantizedLayer quantize(NeuronLayer layer, double inputScale, int inputZeroPoint) {
+        int size = layer.getSize(), inputsCount = layer.getInputsCount();
+        Storage weights = layer.getWeights();
+        double[] scales = new double[size], biases = new double[size];
+        layer.getBiases().copyTo(biases);
+        for (int r = 0, offset = 0; r < size; r++, offset += inputsCount) {
+            double largest = 0;
+            for (int c = offset; c < offset + inputsCount; c++) largest = Math.max(largest, Math.abs(weights.get(c)));
+            scales[r] = largest / 127;
+        }
+        if (granularity == Granularity.LAYER) {
+            double largest = 0;
+            for (double scale : scales) largest = Math.max(largest, scale);
+            Arrays.fill(scales, largest);
+        }
+        // all-zero rows quantize to zeros whatever the scale
+        for (int r = 0; r < size; r++) if (scales[r] == 0) scales[r] = 1;
+        byte[] codes = new byte[weights.length()];
+        for (int r = 0, offset = 0; r < size; r++, offset += inputsCount) {
+            double inverse = 1 / scales[r];
+            for (int c = offset; c < offset + inputsCount; c++) codes[c] = QuantizedLayer.quantize(weights.get(c), inverse, 0);
+        }
+        return new QuantizedLayer(size, inputsCount, codes, scales, biases, layer.getActivation(), inputScale, inputZeroPoint);
+    }
+
+    public enum Granularity { LAYER, ROW }
+
+}
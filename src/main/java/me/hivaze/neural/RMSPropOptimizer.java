@@ -0,0 +1,42 @@
+package me.hivaze.neural;
+
+import java.util.List;
+
+// Gradient divided by a running root mean square of its recent values, one step size per weight
+public class RMSPropOptimizer implements Optimizer {
+
+    private final Gradients squares;
+    private double decay = 0.9, epsilon = 1e-8;
+
+    public RMSPropOptimizer(NeuralNetwork network) {
+        this.squares = new Gradients(network);
+    }
+
+    public RMSPropOptimizer decay(double decay) {
+        assert decay > 0 && decay < 1;
+        this.decay = decay;
+        return this;
+    }
+
+    public RMSPropOptimizer epsilon(double epsilon) {
+        assert epsilon > 0;
+        this.epsilon = epsilon;
+        return this;
+    }
+
+    @Override
+    public List<double[]> state() {
+        return squares.buffers();
+    }
+
+    @Override
+    public void update(NeuronLayer layer, boolean biases, Storage target, double[] corrections, double learningSpeed, int batchSize, int from, int to) {
+        double[] squares = biases ? this.squares.getBiases(layer) : this.squares.getWeights(layer);
+        for (int i = from; i < to; i++) {
+            double gradient = corrections[i] / batchSize;
+            double square = squares[i] = decay * squares[i] + (1 - decay) * gradient * gradient;
+            target.add(i, learningSpeed * gradient / (Math.sqrt(square) + epsilon));
+        }
+    }
+
+}
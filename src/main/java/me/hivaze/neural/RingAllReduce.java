@@ -0,0 +1,301 @@
+package me.hivaze.neural;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// Ring of training processes, each talking TCP to the next and the previous rank only. Rank 0 is the coordinator:
+// the others register their ring port with it, get every rank's address back and the coordinator connections are
+// closed. Reductions are reduce-scatter then all-gather, each rank sends 2 * (n - 1) / n of the vector whatever the
+// world size. Buffers are direct and reused, nothing is allocated per message. Not thread-safe, one caller at a time
+public final class RingAllReduce implements Closeable {
+
+    private static final int SEGMENT_BYTES = 256 * 1024;
+    private static final int SUM = 0, MAX = 1, COPY = 2;
+
+    private final int rank, worldSize;
+    private final long timeoutNanos;
+    private final SocketChannel next, previous;
+    private final Selector selector;
+    private final SelectionKey nextKey, previousKey;
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(SEGMENT_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    // kept between calls, the previous rank may already be sending the next step's values
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(SEGMENT_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private long waitNanos;
+
+    private RingAllReduce(int rank, int worldSize, long timeoutNanos, SocketChannel next, SocketChannel previous) throws IOException {
+        this.rank = rank;
+        this.worldSize = worldSize;
+        this.timeoutNanos = timeoutNanos;
+        this.next = next;
+        this.previous = previous;
+        this.selector = next != null ? Selector.open() : null;
+        this.nextKey = next != null ? next.register(selector, 0) : null;
+        this.previousKey = previous != null ? previous.register(selector, 0) : null;
+        sendBuffer.flip();
+    }
+
+    // blocks until all worldSize ranks joined, a rank that doesn't show up or stops answering
+    // for timeoutMillis fails the call with an IOException naming it
+    public static RingAllReduce join(InetSocketAddress coordinator, int rank, int worldSize, long timeoutMillis) throws IOException {
+        if (rank < 0 || rank >= worldSize) throw new IllegalArgumentException("Rank " + rank + " outside a world of " + worldSize);
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis), deadline = System.nanoTime() + timeoutNanos;
+        if (worldSize == 1) return new RingAllReduce(0, 1, timeoutNanos, null, null);
+        try (ServerSocketChannel ring = ServerSocketChannel.open()) {
+            InetAddress[] hosts = new InetAddress[worldSize];
+            int[] ports = new int[worldSize];
+            if (rank == 0) {
+                try (ServerSocketChannel registry = ServerSocketChannel.open()) {
+                    registry.bind(coordinator, worldSize);
+                    ring.bind(new InetSocketAddress(0));
+                    hosts[0] = coordinator.getAddress();
+                    ports[0] = ring.socket().getLocalPort();
+                    coordinate(registry, hosts, ports, deadline);
+                }
+            } else {
+                ring.bind(new InetSocketAddress(0));
+                register(coordinator, rank, ring.socket().getLocalPort(), hosts, ports, deadline);
+            }
+            int nextRank = (rank + 1) % worldSize, previousRank = (rank + worldSize - 1) % worldSize;
+            SocketChannel next = connect(new InetSocketAddress(hosts[nextRank], ports[nextRank]), deadline, "rank " + nextRank);
+            SocketChannel previous = null;
+            try {
+                transfer(next, ByteBuffer.allocate(Integer.BYTES).putInt(0, rank), true, deadline, "rank " + nextRank);
+                previous = accept(ring, deadline, "rank " + previousRank);
+                ByteBuffer hello = ByteBuffer.allocate(Integer.BYTES);
+                transfer(previous, hello, false, deadline, "rank " + previousRank);
+                if (hello.getInt(0) != previousRank) throw new IOException("Rank " + rank + " expected rank " + previousRank + ", got " + hello.getInt(0));
+                return new RingAllReduce(rank, worldSize, timeoutNanos, next, previous);
+            } catch (IOException | RuntimeException e) {
+                next.close();
+                if (previous != null) previous.close();
+                throw e;
+            }
+        }
+    }
+
+    // rank 0: waits for every other rank's ring port and sends the full table back to all of them
+    private static void coordinate(ServerSocketChannel registry, InetAddress[] hosts, int[] ports, long deadline) throws IOException {
+        SocketChannel[] workers = new SocketChannel[hosts.length];
+        try {
+            for (int registered = 1; registered < hosts.length; registered++) {
+                SocketChannel worker = accept(registry, deadline, (hosts.length - registered) + " more ranks");
+                ByteBuffer registration = ByteBuffer.allocate(2 * Integer.BYTES);
+                transfer(worker, registration, false, deadline, "a registering rank");
+                int rank = registration.getInt(0);
+                if (rank <= 0 || rank >= hosts.length || workers[rank] != null) {
+                    worker.close();
+                    throw new IOException("Bad or duplicate rank " + rank + " registered");
+                }
+                workers[rank] = worker;
+                hosts[rank] = ((InetSocketAddress) worker.getRemoteAddress()).getAddress();
+                ports[rank] = registration.getInt(Integer.BYTES);
+            }
+            ByteBuffer table = ByteBuffer.allocate(hosts.length * (2 * Integer.BYTES + 16));
+            for (int r = 0; r < hosts.length; r++) {
+                byte[] address = hosts[r].getAddress();
+                table.putInt(address.length).put(address).putInt(ports[r]);
+            }
+            table.flip();
+            for (int r = 1; r < hosts.length; r++) transfer(workers[r], table.duplicate(), true, deadline, "rank " + r);
+        } finally {
+            for (SocketChannel worker : workers) if (worker != null) worker.close();
+        }
+    }
+
+    private static void register(InetSocketAddress coordinator, int rank, int port, InetAddress[] hosts, int[] ports, long deadline) throws IOException {
+        try (SocketChannel channel = connect(coordinator, deadline, "the coordinator")) {
+            transfer(channel, ByteBuffer.allocate(2 * Integer.BYTES).putInt(0, rank).putInt(Integer.BYTES, port), true, deadline, "the coordinator");
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES), entry = ByteBuffer.allocate(16 + Integer.BYTES);
+            for (int r = 0; r < hosts.length; r++) {
+                transfer(channel, length.clear(), false, deadline, "the coordinator");
+                entry.clear().limit(length.getInt(0) + Integer.BYTES);
+                transfer(channel, entry, false, deadline, "the coordinator");
+                byte[] address = new byte[length.getInt(0)];
+                entry.flip();
+                entry.get(address);
+                hosts[r] = InetAddress.getByAddress(address);
+                ports[r] = entry.getInt();
+            }
+            // rank 0 is wherever this rank reached the coordinator
+            hosts[0] = coordinator.getAddress();
+        }
+    }
+
+    // retries until the deadline, the other side may not be listening yet
+    private static SocketChannel connect(InetSocketAddress address, long deadline, String peer) throws IOException {
+        while (true) {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.connect(address);
+                channel.socket().setTcpNoDelay(true);
+                channel.configureBlocking(false);
+                return channel;
+            } catch (ConnectException e) {
+                channel.close();
+                if (System.nanoTime() - deadline > 0) throw new IOException("Timed out connecting to " + peer + " at " + address, e);
+                sleep(50);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+    }
+
+    private static SocketChannel accept(ServerSocketChannel server, long deadline, String peer) throws IOException {
+        server.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            while (true) {
+                SocketChannel channel = server.accept();
+                if (channel != null) {
+                    channel.socket().setTcpNoDelay(true);
+                    channel.configureBlocking(false);
+                    return channel;
+                }
+                long left = deadline - System.nanoTime();
+                if (left <= 0) throw new IOException("Timed out waiting for " + peer);
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(left)));
+                selector.selectedKeys().clear();
+            }
+        }
+    }
+
+    // moves all of the buffer, handshakes only
+    private static void transfer(SocketChannel channel, ByteBuffer buffer, boolean write, long deadline, String peer) throws IOException {
+        try (Selector selector = Selector.open()) {
+            channel.register(selector, write ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            while (buffer.hasRemaining()) {
+                int moved = write ? channel.write(buffer) : channel.read(buffer);
+                if (moved < 0) throw new EOFException("Connection to " + peer + " closed");
+                if (moved > 0) continue;
+                long left = deadline - System.nanoTime();
+                if (left <= 0) throw new IOException("Timed out talking to " + peer);
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(left)));
+                selector.selectedKeys().clear();
+            }
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while joining", e);
+        }
+    }
+
+    public int getRank() {
+        return rank;
+    }
+
+    public int getWorldSize() {
+        return worldSize;
+    }
+
+    // time spent blocked on other ranks, a growing share means a straggler somewhere in the ring
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+
+    // every rank ends up with the element-wise sum over all ranks, bit-identical everywhere
+    public void sum(double[] values) throws IOException {
+        reduce(values, SUM);
+    }
+
+    public void max(double[] values) throws IOException {
+        reduce(values, MAX);
+    }
+
+    // every rank ends up with rank 0's values
+    public void broadcast(double[] values) throws IOException {
+        if (rank != 0) Arrays.fill(values, 0d);
+        reduce(values, SUM);
+    }
+
+    private void reduce(double[] values, int operation) throws IOException {
+        if (worldSize == 1) return;
+        // after reduce-scatter rank r holds the reduced chunk r + 1, all-gather passes those around
+        for (int step = 0; step < worldSize - 1; step++) {
+            int send = Math.floorMod(rank - step, worldSize), receive = Math.floorMod(rank - step - 1, worldSize);
+            exchange(values, chunkStart(send, values.length), chunkStart(send + 1, values.length),
+                    chunkStart(receive, values.length), chunkStart(receive + 1, values.length), operation);
+        }
+        for (int step = 0; step < worldSize - 1; step++) {
+            int send = Math.floorMod(rank + 1 - step, worldSize), receive = Math.floorMod(rank - step, worldSize);
+            exchange(values, chunkStart(send, values.length), chunkStart(send + 1, values.length),
+                    chunkStart(receive, values.length), chunkStart(receive + 1, values.length), COPY);
+        }
+    }
+
+    private int chunkStart(int chunk, int length) {
+        return (int) ((long) length * chunk / worldSize);
+    }
+
+    // sends values[sendFrom, sendTo) to the next rank while combining values[receiveFrom, receiveTo) with the previous one's
+    private void exchange(double[] values, int sendFrom, int sendTo, int receiveFrom, int receiveTo, int operation) throws IOException {
+        int sent = sendFrom, received = receiveFrom;
+        long lastProgress = System.nanoTime();
+        while (sent < sendTo || sendBuffer.hasRemaining() || received < receiveTo) {
+            boolean progress = false;
+            if (!sendBuffer.hasRemaining() && sent < sendTo) {
+                sendBuffer.clear();
+                int count = Math.min(sendTo - sent, SEGMENT_BYTES / Double.BYTES);
+                for (int i = 0; i < count; i++) sendBuffer.putDouble(values[sent++]);
+                sendBuffer.flip();
+            }
+            if (sendBuffer.hasRemaining() && next.write(sendBuffer) > 0) progress = true;
+            if (received < receiveTo) {
+                if (previous.read(receiveBuffer) < 0) throw new EOFException("Rank " + Math.floorMod(rank - 1, worldSize) + " left the ring");
+                receiveBuffer.flip();
+                int count = Math.min(receiveBuffer.remaining() / Double.BYTES, receiveTo - received);
+                if (count > 0) progress = true;
+                for (int i = 0; i < count; i++, received++) {
+                    double value = receiveBuffer.getDouble();
+                    if (operation == SUM) values[received] += value;
+                    else if (operation == MAX) values[received] = Math.max(values[received], value);
+                    else values[received] = value;
+                }
+                receiveBuffer.compact();
+            }
+            if (progress) {
+                lastProgress = System.nanoTime();
+                continue;
+            }
+            long start = System.nanoTime();
+            if (start - lastProgress > timeoutNanos) {
+                throw new IOException(received < receiveTo ? "Rank " + rank + " got nothing from rank " + Math.floorMod(rank - 1, worldSize) + " in time"
+                        : "Rank " + (rank + 1) % worldSize + " stopped reading from rank " + rank);
+            }
+            nextKey.interestOps(sendBuffer.hasRemaining() ? SelectionKey.OP_WRITE : 0);
+            previousKey.interestOps(received < receiveTo ? SelectionKey.OP_READ : 0);
+            selector.select(100);
+            selector.selectedKeys().clear();
+            waitNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (selector == null) return;
+        try {
+            selector.close();
+            next.close();
+        } finally {
+            previous.close();
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package me.hivaze.neural;
+
+import java.nio.ByteBuffer;
+
+// Plain java loops, four independent sums keep the FPU pipeline busy where the JIT won't vectorize
+final class ScalarKernels implements KernelBackend {
+
+    @Override
+    public double dot(double[] weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int bound = length & ~3; i < bound; i += 4) {
+            s0 += weights[weightsOffset + i] * inputs[inputsOffset + i];
+            s1 += weights[weightsOffset + i + 1] * inputs[inputsOffset + i + 1];
+            s2 += weights[weightsOffset + i + 2] * inputs[inputsOffset + i + 2];
+            s3 += weights[weightsOffset + i + 3] * inputs[inputsOffset + i + 3];
+        }
+        for (; i < length; i++) s0 += weights[weightsOffset + i] * inputs[inputsOffset + i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public double dotDoubles(ByteBuffer weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int bound = length & ~3; i < bound; i += 4) {
+            int at = (weightsOffset + i) << 3;
+            s0 += weights.getDouble(at) * inputs[inputsOffset + i];
+            s1 += weights.getDouble(at + 8) * inputs[inputsOffset + i + 1];
+            s2 += weights.getDouble(at + 16) * inputs[inputsOffset + i + 2];
+            s3 += weights.getDouble(at + 24) * inputs[inputsOffset + i + 3];
+        }
+        for (; i < length; i++) s0 += weights.getDouble((weightsOffset + i) << 3) * inputs[inputsOffset + i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public double dot(float[] weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int bound = length & ~3; i < bound; i += 4) {
+            s0 += weights[weightsOffset + i] * inputs[inputsOffset + i];
+            s1 += weights[weightsOffset + i + 1] * inputs[inputsOffset + i + 1];
+            s2 += weights[weightsOffset + i + 2] * inputs[inputsOffset + i + 2];
+            s3 += weights[weightsOffset + i + 3] * inputs[inputsOffset + i + 3];
+        }
+        for (; i < length; i++) s0 += weights[weightsOffset + i] * inputs[inputsOffset + i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public double dotFloats(ByteBuffer weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int bound = length & ~3; i < bound; i += 4) {
+            int at = (weightsOffset + i) << 2;
+            s0 += weights.getFloat(at) * inputs[inputsOffset + i];
+            s1 += weights.getFloat(at + 4) * inputs[inputsOffset + i + 1];
+            s2 += weights.getFloat(at + 8) * inputs[inputsOffset + i + 2];
+            s3 += weights.getFloat(at + 12) * inputs[inputsOffset + i + 3];
+        }
+        for (; i < length; i++) s0 += weights.getFloat((weightsOffset + i) << 2) * inputs[inputsOffset + i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public float dotSingle(float[] weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int bound = length & ~3; i < bound; i += 4) {
+            s0 += weights[weightsOffset + i] * (float) inputs[inputsOffset + i];
+            s1 += weights[weightsOffset + i + 1] * (float) inputs[inputsOffset + i + 1];
+            s2 += weights[weightsOffset + i + 2] * (float) inputs[inputsOffset + i + 2];
+            s3 += weights[weightsOffset + i + 3] * (float) inputs[inputsOffset + i + 3];
+        }
+        for (; i < length; i++) s0 += weights[weightsOffset + i] * (float) inputs[inputsOffset + i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public float dotFloatsSingle(ByteBuffer weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int bound = length & ~3; i < bound; i += 4) {
+            int at = (weightsOffset + i) << 2;
+            s0 += weights.getFloat(at) * (float) inputs[inputsOffset + i];
+            s1 += weights.getFloat(at + 4) * (float) inputs[inputsOffset + i + 1];
+            s2 += weights.getFloat(at + 8) * (float) inputs[inputsOffset + i + 2];
+            s3 += weights.getFloat(at + 12) * (float) inputs[inputsOffset + i + 3];
+        }
+        for (; i < length; i++) s0 += weights.getFloat((weightsOffset + i) << 2) * (float) inputs[inputsOffset + i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public int dot(byte[] weights, int weightsOffset, byte[] inputs, int length) {
+        int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int bound = length & ~3; i < bound; i += 4) {
+            s0 += weights[weightsOffset + i] * inputs[i];
+            s1 += weights[weightsOffset + i + 1] * inputs[i + 1];
+            s2 += weights[weightsOffset + i + 2] * inputs[i + 2];
+            s3 += weights[weightsOffset + i + 3] * inputs[i + 3];
+        }
+        for (; i < length; i++) s0 += weights[weightsOffset + i] * inputs[i];
+        return s0 + s1 + s2 + s3;
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) y[yOffset + i] += alpha * x[xOffset + i];
+    }
+
+    @Override
+    public void axpy(double alpha, float[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) y[yOffset + i] += alpha * x[xOffset + i];
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, float[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) y[yOffset + i] += (float) (alpha * x[xOffset + i]);
+    }
+
+    @Override
+    public void activate(Neuron.Activation activation, double[] rawSums, double[] result, int length) {
+        for (int i = 0; i < length; i++) result[i] = activation.apply(rawSums[i]);
+    }
+
+}
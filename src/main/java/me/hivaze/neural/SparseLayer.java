@@ -0,0 +1,64 @@
+package me.hivaze.neural;
+
+// Compressed sparse row weights: the non-zero weights of row r are values[rowStarts[r] .. rowStarts[r + 1])
+// and they multiply inputs[columns[k]]. Work and memory grow with the non-zeros, not with size * inputsCount
+final class SparseLayer {
+
+    final int size, inputsCount;
+    final int[] rowStarts, columns;
+    final double[] values, biases;
+    final Neuron.Activation activation;
+
+    SparseLayer(int size, int inputsCount, int[] rowStarts, int[] columns, double[] values, double[] biases, Neuron.Activation activation) {
+        assert rowStarts.length == size + 1 && columns.length == values.length && rowStarts[size] == values.length;
+        this.size = size;
+        this.inputsCount = inputsCount;
+        this.rowStarts = rowStarts;
+        this.columns = columns;
+        this.values = values;
+        this.biases = biases;
+        this.activation = activation;
+    }
+
+    // keeps the non-zero weights of a dense layer
+    static SparseLayer of(NeuronLayer layer) {
+        Storage weights = layer.getWeights();
+        int size = layer.getSize(), inputsCount = layer.getInputsCount(), nonZeros = 0;
+        for (int i = 0; i < weights.length(); i++) if (weights.get(i) != 0) nonZeros++;
+        int[] rowStarts = new int[size + 1], columns = new int[nonZeros];
+        double[] values = new double[nonZeros], biases = new double[size];
+        for (int r = 0, k = 0, offset = 0; r < size; r++, offset += inputsCount) {
+            for (int c = 0; c < inputsCount; c++) {
+                double value = weights.get(offset + c);
+                if (value == 0) continue;
+                columns[k] = c;
+                values[k++] = value;
+            }
+            rowStarts[r + 1] = k;
+        }
+        layer.getBiases().copyTo(biases);
+        return new SparseLayer(size, inputsCount, rowStarts, columns, values, biases, layer.getActivation());
+    }
+
+    void output(double[] inputs, double[] rawSums, double[] result) {
+        int[] columns = this.columns;
+        double[] values = this.values;
+        for (int r = 0; r < size; r++) {
+            // two chains so the adds of long rows overlap
+            double even = 0, odd = 0;
+            int k = rowStarts[r], end = rowStarts[r + 1];
+            for (; k + 1 < end; k += 2) {
+                even += values[k] * inputs[columns[k]];
+                odd += values[k + 1] * inputs[columns[k + 1]];
+            }
+            if (k < end) even += values[k] * inputs[columns[k]];
+            rawSums[r] = even + odd + biases[r];
+        }
+        activation.apply(rawSums, result, size);
+    }
+
+    long bytes() {
+        return (long) (rowStarts.length + columns.length) * Integer.BYTES + (long) (values.length + biases.length) * Double.BYTES;
+    }
+
+}
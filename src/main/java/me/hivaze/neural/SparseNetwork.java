@@ -0,0 +1,130 @@
+package me.hivaze.neural;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// Inference-only copy of a pruned network with every layer but the input one in CSR form, see SparseLayer.
+// Zero weights are dropped whatever made them zero. Saved in the .dnn container with the sparse dtype
+public class SparseNetwork {
+
+    private final double[] inputWeights, inputBiases;
+    private final SparseLayer[] layers;
+    private final NeuralNetwork.Initialization initializationMethod;
+    private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+    SparseNetwork(double[] inputWeights, double[] inputBiases, SparseLayer[] layers, NeuralNetwork.Initialization initializationMethod) {
+        this.inputWeights = inputWeights;
+        this.inputBiases = inputBiases;
+        this.layers = layers;
+        this.initializationMethod = initializationMethod;
+    }
+
+    public SparseNetwork(NeuralNetwork network) {
+        this(inputWeights(network), inputBiases(network), sparseLayers(network), network.getInitializationMethod());
+    }
+
+    public SparseNetwork(Path filePath) throws IOException {
+        this(ModelFormat.readSparse(filePath));
+    }
+
+    private SparseNetwork(SparseNetwork loaded) {
+        this(loaded.inputWeights, loaded.inputBiases, loaded.layers, loaded.initializationMethod);
+    }
+
+    // safe to call from many threads at once
+    public double[] output(double[] inputs) {
+        assert inputs.length == inputWeights.length;
+        Buffers buffers = this.buffers.get();
+        double[] activations = buffers.activations[0];
+        for (int i = 0; i < inputs.length; i++) activations[i] = inputs[i] * inputWeights[i] + inputBiases[i];
+        for (int l = 0; l < layers.length; l++) {
+            layers[l].output(activations, buffers.rawSums, buffers.activations[l + 1]);
+            activations = buffers.activations[l + 1];
+        }
+        return activations.clone();
+    }
+
+    public SparseNetwork saveTo(Path path) throws IOException {
+        ModelFormat.writeSparse(this, path);
+        return this;
+    }
+
+    public int getInputSize() {
+        return inputWeights.length;
+    }
+
+    public int getOutputSize() {
+        return layers[layers.length - 1].size;
+    }
+
+    // share of zero weights over all layers but the input one
+    public double getSparsity() {
+        long nonZeros = 0, total = 0;
+        for (SparseLayer layer : layers) {
+            nonZeros += layer.values.length;
+            total += (long) layer.size * layer.inputsCount;
+        }
+        return 1 - (double) nonZeros / total;
+    }
+
+    // weights, indices and biases of every layer
+    public long getParameterBytes() {
+        long bytes = (long) (inputWeights.length + inputBiases.length) * Double.BYTES;
+        for (SparseLayer layer : layers) bytes += layer.bytes();
+        return bytes;
+    }
+
+    public NeuralNetwork.Initialization getInitializationMethod() {
+        return initializationMethod;
+    }
+
+    double[] getInputWeights() {
+        return inputWeights;
+    }
+
+    double[] getInputBiases() {
+        return inputBiases;
+    }
+
+    SparseLayer[] getLayers() {
+        return layers;
+    }
+
+    private static double[] inputWeights(NeuralNetwork network) {
+        double[] weights = new double[network.getInputLayer().getSize()];
+        network.getInputLayer().getWeights().copyTo(weights);
+        return weights;
+    }
+
+    private static double[] inputBiases(NeuralNetwork network) {
+        double[] biases = new double[network.getInputLayer().getSize()];
+        network.getInputLayer().getBiases().copyTo(biases);
+        return biases;
+    }
+
+    private static SparseLayer[] sparseLayers(NeuralNetwork network) {
+        SparseLayer[] layers = new SparseLayer[network.getHiddenLayers().length + 1];
+        for (NeuronLayer layer = network.getInputLayer().getOutput(); layer != null; layer = layer.getOutput()) {
+            layers[layer.getDepth() - 1] = SparseLayer.of(layer);
+        }
+        return layers;
+    }
+
+    private class Buffers {
+
+        private final double[][] activations = new double[layers.length + 1][];
+        private final double[] rawSums;
+
+        Buffers() {
+            int widest = 0;
+            activations[0] = new double[inputWeights.length];
+            for (int l = 0; l < layers.length; l++) {
+                activations[l + 1] = new double[layers[l].size];
+                widest = Math.max(widest, layers[l].size);
+            }
+            this.rawSums = new double[widest];
+        }
+
+    }
+
+}
@@ -0,0 +1,109 @@
+package me.hivaze.neural;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Flat parameter vector of a layer, weights are viewed as a row-major rows x columns matrix.
+// Subclasses override the bulk kernels with loops specialised for their backing memory
+public abstract class Storage {
+
+    Storage() {}
+
+    public static Storage allocate(int length) {
+        return allocate(length, NeuralNetwork.Precision.DOUBLE);
+    }
+
+    public static Storage allocate(int length, NeuralNetwork.Precision precision) {
+        if (precision == NeuralNetwork.Precision.DOUBLE) return new ArrayStorage(new double[length]);
+        return new FloatArrayStorage(new float[length], precision == NeuralNetwork.Precision.MIXED);
+    }
+
+    // off-heap storage is a zeroed direct buffer, one buffer holds at most 2 GiB
+    public static Storage allocate(int length, NeuralNetwork.Precision precision, NeuralNetwork.Memory memory) {
+        if (memory == NeuralNetwork.Memory.HEAP) return allocate(length, precision);
+        int elementBytes = precision == NeuralNetwork.Precision.DOUBLE ? Double.BYTES : Float.BYTES;
+        if ((long) length * elementBytes > Integer.MAX_VALUE) throw new IllegalArgumentException("Layer of " + length + " values doesn't fit one direct buffer");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length * elementBytes);
+        if (precision == NeuralNetwork.Precision.DOUBLE) return new BufferStorage(buffer);
+        return new FloatBufferStorage(buffer, precision == NeuralNetwork.Precision.MIXED);
+    }
+
+    public abstract int length();
+
+    public abstract double get(int index);
+
+    public abstract void set(int index, double value);
+
+    public void add(int index, double value) {
+        set(index, get(index) + value);
+    }
+
+    public void fill(double value) {
+        for (int i = 0; i < length(); i++) set(i, value);
+    }
+
+    public void clamp(int from, int to, double range) {
+        for (int i = from; i < to; i++) {
+            double value = get(i);
+            if (value < -range) set(i, -range);
+            else if (value > range) set(i, range);
+        }
+    }
+
+    // this[i] += scale * values[i] for i in [from, to)
+    public void addScaled(double scale, double[] values, int from, int to) {
+        for (int i = from; i < to; i++) add(i, scale * values[i]);
+    }
+
+    public double dot(int offset, double[] inputs, int inputsOffset, int length) {
+        double sum = 0;
+        for (int i = 0; i < length; i++) sum += get(offset + i) * inputs[inputsOffset + i];
+        return sum;
+    }
+
+    // result[resultOffset + i] += alpha * this[offset + i]
+    public void axpyTo(double alpha, int offset, double[] result, int resultOffset, int length) {
+        for (int i = 0; i < length; i++) result[resultOffset + i] += alpha * get(offset + i);
+    }
+
+    public void copyTo(double[] target) {
+        for (int i = 0; i < length(); i++) target[i] = get(i);
+    }
+
+    public void copyFrom(double[] source) {
+        for (int i = 0; i < length(); i++) set(i, source[i]);
+    }
+
+    // result[r] = sum(this[r][c] * inputs[c])
+    public void gemv(int rows, int columns, double[] inputs, double[] result) {
+        for (int r = 0; r < rows; r++) result[r] = dot(r * columns, inputs, 0, columns);
+    }
+
+    // result[s][r] = sum(this[r][c] * inputs[s][c]) for every sample s of the batch,
+    // a panel of rows stays in cache while all samples pass over it
+    public void gemm(int rows, int columns, double[] inputs, int samples, double[] result) {
+        int panelRows = Math.max(1, Kernels.PANEL_BYTES / bytesPerElement() / Math.max(1, columns));
+        for (int from = 0; from < rows; from += panelRows) {
+            int to = Math.min(rows, from + panelRows);
+            for (int s = 0; s < samples; s++) {
+                for (int r = from; r < to; r++) result[s * rows + r] = dot(r * columns, inputs, s * columns, columns);
+            }
+        }
+    }
+
+    // result[c] = sum(errors[r] * this[r][c])
+    public void gemvTransposed(int rows, int columns, double[] errors, double[] result) {
+        Arrays.fill(result, 0, columns, 0d);
+        for (int r = 0; r < rows; r++) axpyTo(errors[r], r * columns, result, 0, columns);
+    }
+
+    // little-endian, in the storage's own element type
+    public void writeTo(ByteBuffer target, int from, int to) {
+        for (int i = from; i < to; i++) target.putDouble(get(i));
+    }
+
+    public int bytesPerElement() {
+        return Double.BYTES;
+    }
+
+}
@@ -0,0 +1,48 @@
+package me.hivaze.neural;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("me.hivaze.neural.TrainingEpoch")
+@Label("Training Epoch")
+@Category({ "Neural Network", "Training" })
+final class TrainingEpochEvent extends Event {
+
+    @Label("Epoch")
+    long epoch;
+
+    @Label("Samples")
+    long samples;
+
+    @Label("Epoch Time")
+    @Timespan
+    long elapsed;
+
+    @Label("Samples per Second")
+    double samplesPerSecond;
+
+    @Label("Max Error")
+    double maxError;
+
+    @Label("Mean Error")
+    double meanError;
+
+    // worst output for both errors, JFR has no array fields
+    static void commit(EpochMetrics metrics) {
+        TrainingEpochEvent event = new TrainingEpochEvent();
+        if (!event.isEnabled()) return;
+        event.epoch = metrics.getEpoch();
+        event.samples = metrics.getSamples();
+        event.elapsed = metrics.getElapsedNanos();
+        event.samplesPerSecond = metrics.getSamplesPerSecond();
+        for (int i = 0; i < metrics.getMaxErrors().length; i++) {
+            event.maxError = Math.max(event.maxError, metrics.getMaxErrors()[i]);
+            event.meanError = Math.max(event.meanError, metrics.getMeanErrors()[i]);
+        }
+        event.commit();
+    }
+
+}
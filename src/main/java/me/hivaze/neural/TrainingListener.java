@@ -0,0 +1,14 @@
+package me.hivaze.neural;
+
+// Called by BackPropagationTrainer on its own thread after every epoch. Metrics are only gathered
+// while a listener is attached, so training without one pays nothing for them
+public interface TrainingListener {
+
+    void epochEnd(EpochMetrics metrics);
+
+    // emits every epoch as a me.hivaze.neural.TrainingEpoch JFR event, free while no recording enables it
+    static TrainingListener jfr() {
+        return TrainingEpochEvent::commit;
+    }
+
+}
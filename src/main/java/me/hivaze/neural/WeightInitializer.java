@@ -0,0 +1,98 @@
+package me.hivaze.neural;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+// Fills weights and biases of every layer but the input one in a single pass over chunks of rows. Each layer draws one
+// seed from its Random, every chunk gets its own SplittableRandom split off that seed in chunk order, and chunk
+// boundaries depend on the layer shape only, so a seed gives the same weights whatever the thread count
+final class WeightInitializer {
+
+    // about this many weights per task
+    private static final int CHUNK_WEIGHTS = 1 << 16;
+
+    private WeightInitializer() {}
+
+    static void randomise(NeuralNetwork network, int parallelism) {
+        List<Runnable> tasks = new ArrayList<>();
+        for (NeuronLayer layer = network.getInputLayer().getOutput(); layer != null; layer = layer.getOutput()) {
+            NeuronLayer filled = layer;
+            NeuralNetwork.Initialization method = network.getInitializationMethod();
+            // Nguyen-Widrow scales hidden layers only, the output layer keeps plain random weights
+            if (method == NeuralNetwork.Initialization.NGUYEN_WIDROW && layer == network.getOutputLayer()) method = NeuralNetwork.Initialization.RANDOM;
+            NeuralNetwork.Initialization layerMethod = method;
+            SplittableRandom seed = new SplittableRandom(layer.getRandom().nextLong());
+            int rows = Math.max(1, CHUNK_WEIGHTS / Math.max(1, layer.getInputsCount()));
+            for (int from = 0; from < layer.getSize(); from += rows) {
+                int chunkFrom = from, chunkTo = Math.min(layer.getSize(), from + rows);
+                SplittableRandom random = seed.split();
+                tasks.add(() -> fill(filled, layerMethod, random, chunkFrom, chunkTo));
+            }
+        }
+        if (parallelism <= 1 || tasks.size() < 2) {
+            tasks.forEach(Runnable::run);
+        } else {
+            List<Callable<Void>> callables = new ArrayList<>(tasks.size());
+            for (Runnable task : tasks) callables.add(Executors.callable(task, null));
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                BackPropagationTrainer.invokeAll(pool, callables);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        for (NeuronLayer layer = network.getInputLayer().getOutput(); layer != null; layer = layer.getOutput()) layer.modified();
+    }
+
+    private static void fill(NeuronLayer layer, NeuralNetwork.Initialization method, SplittableRandom random, int fromRow, int toRow) {
+        Storage weights = layer.getWeights(), biases = layer.getBiases();
+        int inputsCount = layer.getInputsCount();
+        double[] row = new double[inputsCount];
+        // Nguyen-Widrow: beta = 0.7 * size ^ (1 / inputs); Xavier (Glorot uniform): a = sqrt(6 / (fan in + fan out)); He: sd = sqrt(2 / fan in)
+        double beta = 0.7d * Math.pow(layer.getSize(), 1d / inputsCount), xavier = Math.sqrt(6d / (inputsCount + layer.getSize())), he = Math.sqrt(2d / inputsCount);
+        for (int r = fromRow, offset = fromRow * inputsCount; r < toRow; r++, offset += inputsCount) {
+            double bias;
+            switch (method) {
+                case NGUYEN_WIDROW:
+                    double sum = 0;
+                    for (int c = 0; c < inputsCount; c++) {
+                        row[c] = 0.5d - random.nextDouble();
+                        sum += row[c] * row[c];
+                    }
+                    double scale = beta / Math.sqrt(sum);
+                    for (int c = 0; c < inputsCount; c++) row[c] *= scale;
+                    bias = (1 - 2 * random.nextDouble()) * beta;
+                    break;
+                case XAVIER:
+                    for (int c = 0; c < inputsCount; c++) row[c] = xavier * (2 * random.nextDouble() - 1);
+                    bias = 0;
+                    break;
+                case HE:
+                    for (int c = 0; c < inputsCount; c++) row[c] = he * gaussian(random);
+                    bias = 0;
+                    break;
+                default:
+                    for (int c = 0; c < inputsCount; c++) row[c] = 0.5d - random.nextDouble();
+                    bias = 0.5d - random.nextDouble();
+            }
+            for (int c = 0; c < inputsCount; c++) weights.set(offset + c, row[c]);
+            biases.set(r, bias);
+        }
+    }
+
+    // Marsaglia's polar method, the second value of the pair is dropped to keep no state between calls
+    private static double gaussian(SplittableRandom random) {
+        double u, v, s;
+        do {
+            u = 2 * random.nextDouble() - 1;
+            v = 2 * random.nextDouble() - 1;
+            s = u * u + v * v;
+        } while (s >= 1 || s == 0);
+        return u * Math.sqrt(-2 * Math.log(s) / s);
+    }
+
+}
@@ -0,0 +1,46 @@
+package me.hivaze.neural;
+
+// Per-sample activation state of one caller, weights stay shared between workspaces.
+// Buffers hold up to capacity samples, row-major
+public class Workspace {
+
+    private final int capacity;
+    private final double[][] rawSums, normalizedSums;
+    private double[][] errors;
+
+    Workspace(NeuralNetwork network, int capacity) {
+        int layers = network.getHiddenLayers().length + 2;
+        this.capacity = capacity;
+        this.rawSums = new double[layers][];
+        this.normalizedSums = new double[layers][];
+        for (NeuronLayer layer = network.getInputLayer(); layer != null; layer = layer.getOutput()) {
+            rawSums[layer.getDepth()] = new double[capacity * layer.getSize()];
+            normalizedSums[layer.getDepth()] = new double[capacity * layer.getSize()];
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public double[] getRawSums(NeuronLayer layer) {
+        return rawSums[layer.getDepth()];
+    }
+
+    public double[] getNormalizedSums(NeuronLayer layer) {
+        return normalizedSums[layer.getDepth()];
+    }
+
+    // backpropagated errors of a single sample, allocated on first use by a trainer
+    public double[] getErrors(NeuronLayer layer) {
+        if (errors == null) errors = new double[rawSums.length][];
+        double[] result = errors[layer.getDepth()];
+        if (result == null) result = errors[layer.getDepth()] = new double[layer.getSize()];
+        return result;
+    }
+
+    public double[] getOutput() {
+        return normalizedSums[normalizedSums.length - 1];
+    }
+
+}
@@ -0,0 +1,203 @@
+package me.hivaze.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import me.hivaze.neural.NeuralNetwork;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Serves a network over HTTP/1.1: POST /predict with a JSON array (or plain comma-separated numbers) of one sample's
+// inputs answers with the outputs as a JSON array, GET /stats with the counters. Concurrent requests are
+// micro-batched into a single forward pass, see MicroBatcher. The network mustn't be trained while serving.
+// Run the JVM with -Dsun.net.httpserver.nodelay=true: the JDK server writes headers and body separately, and with
+// Nagle on the body waits for the client's delayed ACK (~40 ms). It is read once per JVM by the first HttpServer
+// and applies to all of them, so it's left to the application
+public class InferenceServer {
+
+    private static final int BACKLOG = 1024;
+
+    private final NeuralNetwork network;
+    private int maxBatchSize = 64;
+    private long maxDelayNanos = 200_000;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong requests = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+    private MicroBatcher batcher;
+    private Thread batcherThread;
+    private long startNanos;
+
+    public InferenceServer(NeuralNetwork network) {
+        this.network = network;
+    }
+
+    public InferenceServer maxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) throw new IllegalArgumentException("Max batch size must be positive");
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    // how long the first request of a batch may wait for others, the latency cap batching adds
+    public InferenceServer maxDelay(long micros) {
+        if (micros < 0) throw new IllegalArgumentException("Max delay can't be negative");
+        this.maxDelayNanos = micros * 1000;
+        return this;
+    }
+
+    // port 0 picks a free one, see getAddress()
+    public synchronized InferenceServer start(InetSocketAddress address) throws IOException {
+        if (server != null) throw new IllegalStateException("Server is already running");
+        batcher = new MicroBatcher(network, maxBatchSize, maxDelayNanos);
+        batcherThread = new Thread(batcher, "inference-batcher");
+        batcherThread.setDaemon(true);
+        executor = requestExecutor();
+        server = HttpServer.create(address, BACKLOG);
+        server.setExecutor(executor);
+        server.createContext("/predict", this::predict);
+        server.createContext("/stats", this::stats);
+        startNanos = System.nanoTime();
+        batcherThread.start();
+        server.start();
+        return this;
+    }
+
+    public synchronized void stop() {
+        if (server == null) return;
+        server.stop(0);
+        batcher.stop();
+        try {
+            batcherThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdownNow();
+        server = null;
+    }
+
+    public synchronized InetSocketAddress getAddress() {
+        if (server == null) throw new IllegalStateException("Server isn't running");
+        return server.getAddress();
+    }
+
+    public ServerStats getStats() {
+        MicroBatcher batcher = this.batcher;
+        return new ServerStats(requests.get(), batcher == null ? 0 : batcher.batches.get(), batcher == null ? 0 : batcher.samples.get(),
+                latencies.percentile(0.5), latencies.percentile(0.99), startNanos == 0 ? 0 : System.nanoTime() - startNanos);
+    }
+
+    private void predict(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, error("POST expected"));
+                return;
+            }
+            batcher.arriving();
+            long start;
+            double[] inputs;
+            try {
+                String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                start = System.nanoTime();
+                inputs = parse(body, network.getInputLayer().getSize());
+            } catch (IllegalArgumentException | IOException e) {
+                batcher.abandon();
+                if (e instanceof IOException) throw (IOException) e;
+                respond(exchange, 400, error(e.getMessage()));
+                return;
+            }
+            double[] outputs;
+            try {
+                outputs = batcher.submit(inputs).get();
+            } catch (ExecutionException e) {
+                respond(exchange, 503, error(e.getCause().getMessage()));
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                latencies.record(System.nanoTime() - start);
+                requests.incrementAndGet();
+            }
+            respond(exchange, 200, format(outputs));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) respond(exchange, 405, error("GET expected"));
+            else respond(exchange, 200, getStats().toJson());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // messages come from exceptions, so they may be null or hold anything
+    static String error(String message) {
+        if (message == null) return "{\"error\":null}";
+        StringBuilder builder = new StringBuilder(message.length() + 16).append("{\"error\":\"");
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c == '"' || c == '\\') builder.append('\\').append(c);
+            else if (c < 0x20) builder.append(String.format("\\u%04x", (int) c));
+            else builder.append(c);
+        }
+        return builder.append("\"}").toString();
+    }
+
+    static double[] parse(String body, int size) {
+        String trimmed = body.trim();
+        if (trimmed.startsWith("[") && trimmed.endsWith("]")) trimmed = trimmed.substring(1, trimmed.length() - 1);
+        String[] values = trimmed.split(",");
+        if (values.length != size) throw new IllegalArgumentException("Expected " + size + " inputs, got " + values.length);
+        double[] inputs = new double[size];
+        for (int i = 0; i < size; i++) {
+            try {
+                inputs[i] = Double.parseDouble(values[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad number at " + i);
+            }
+        }
+        return inputs;
+    }
+
+    // Double.toString round-trips exactly, so clients get the very same values as NeuralNetwork.output
+    static String format(double[] outputs) {
+        StringBuilder builder = new StringBuilder(outputs.length * 24).append('[');
+        for (int i = 0; i < outputs.length; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(Double.isFinite(outputs[i]) ? Double.toString(outputs[i]) : "null");
+        }
+        return builder.append(']').toString();
+    }
+
+    // virtual thread per request on runtimes having them, sources target 13 so it's looked up reflectively
+    private static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "inference-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+}
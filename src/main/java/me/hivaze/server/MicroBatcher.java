@@ -0,0 +1,117 @@
+package me.hivaze.server;
+
+import me.hivaze.neural.NeuralNetwork;
+import me.hivaze.neural.Workspace;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Gathers concurrent single-sample requests into one batched forward pass. The first request of a batch
+// waits at most maxDelayNanos for others, a full batch goes at once, and nobody waits when no other request
+// is being read, so a lone request doesn't pay the delay at all
+final class MicroBatcher implements Runnable {
+
+    private final NeuralNetwork network;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Workspace workspace;
+    private final double[] inputs;
+    private final Request[] batch;
+    private final AtomicInteger arriving = new AtomicInteger();
+    private volatile boolean running = true;
+    final AtomicLong batches = new AtomicLong(), samples = new AtomicLong();
+
+    MicroBatcher(NeuralNetwork network, int maxBatchSize, long maxDelayNanos) {
+        this.network = network;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelayNanos;
+        this.workspace = network.newWorkspace(maxBatchSize);
+        this.inputs = new double[maxBatchSize * network.getInputLayer().getSize()];
+        this.batch = new Request[maxBatchSize];
+    }
+
+    // a request started coming in, must be followed by submit or abandon
+    void arriving() {
+        arriving.incrementAndGet();
+    }
+
+    void abandon() {
+        arriving.decrementAndGet();
+    }
+
+    CompletableFuture<double[]> submit(double[] inputs) {
+        arriving.decrementAndGet();
+        Request request = new Request(inputs);
+        if (!running) request.completeExceptionally(new IllegalStateException("Server stopped"));
+        else queue.add(request);
+        return request;
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch[0] = first;
+                int count = 1;
+                long deadline = System.nanoTime() + maxDelayNanos;
+                // take whatever is already queued, then wait for more until the deadline
+                count += drain(count);
+                while (count < maxBatchSize && arriving.get() > 0) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) break;
+                    Request next = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch[count++] = next;
+                    count += drain(count);
+                }
+                process(count);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Request request; (request = queue.poll()) != null; ) request.completeExceptionally(new IllegalStateException("Server stopped"));
+    }
+
+    private int drain(int count) {
+        int drained = 0;
+        for (Request next; count + drained < maxBatchSize && (next = queue.poll()) != null; drained++) batch[count + drained] = next;
+        return drained;
+    }
+
+    private void process(int count) {
+        int inputSize = network.getInputLayer().getSize(), outputSize = network.getOutputLayer().getSize();
+        try {
+            for (int i = 0; i < count; i++) System.arraycopy(batch[i].inputs, 0, inputs, i * inputSize, inputSize);
+            double[] outputs = network.output(inputs, count, workspace);
+            batches.incrementAndGet();
+            samples.addAndGet(count);
+            for (int i = 0; i < count; i++) batch[i].complete(Arrays.copyOfRange(outputs, i * outputSize, (i + 1) * outputSize));
+        } catch (RuntimeException e) {
+            for (int i = 0; i < count; i++) batch[i].completeExceptionally(e);
+        }
+        Arrays.fill(batch, 0, count, null);
+    }
+
+    private static final class Request extends CompletableFuture<double[]> {
+
+        private final double[] inputs;
+
+        Request(double[] inputs) {
+            this.inputs = inputs;
+        }
+
+    }
+
+}
@@ -0,0 +1,54 @@
+package me.hivaze.server;
+
+// Snapshot of an InferenceServer's counters since it was started
+public final class ServerStats {
+
+    private final long requests, batches, samples, p50Nanos, p99Nanos, uptimeNanos;
+
+    ServerStats(long requests, long batches, long samples, long p50Nanos, long p99Nanos, long uptimeNanos) {
+        this.requests = requests;
+        this.batches = batches;
+        this.samples = samples;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.uptimeNanos = uptimeNanos;
+    }
+
+    // answered /predict requests, failed ones included
+    public long getRequests() {
+        return requests;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public double getMeanBatchSize() {
+        return batches == 0 ? 0 : (double) samples / batches;
+    }
+
+    // request latency from reading the body to the answer being ready
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public double getRequestsPerSecond() {
+        return uptimeNanos == 0 ? 0 : requests * 1e9 / uptimeNanos;
+    }
+
+    String toJson() {
+        return String.format(java.util.Locale.ROOT,
+                "{\"requests\":%d,\"batches\":%d,\"meanBatchSize\":%.3f,\"p50Micros\":%.1f,\"p99Micros\":%.1f,\"requestsPerSecond\":%.1f}",
+                requests, batches, getMeanBatchSize(), p50Nanos / 1e3, p99Nanos / 1e3, getRequestsPerSecond());
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+}
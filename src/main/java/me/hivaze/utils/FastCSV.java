@@ -0,0 +1,332 @@
+package me.hivaze.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Row cursor over a CSV file read straight from a FileChannel. Cells are only byte ranges of the buffer,
+// numbers are parsed from the bytes and text columns can be label-coded, so nothing is allocated per cell.
+// Quoted cells may contain delimiters, newlines and "" escapes
+public class FastCSV implements AutoCloseable {
+
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private byte[] bytes = buffer.array();
+    private int position, limit, rowStart;
+    private boolean endOfFile;
+    private byte delimiter = ',';
+    // cell c spans [starts[c], ends[c]) of bytes, quoted cells have their quotes stripped
+    private int[] starts = new int[16], ends = new int[16];
+    private boolean[] escaped = new boolean[16];
+    private int columns;
+    private Categories[] categories = new Categories[0];
+
+    public FastCSV(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    public FastCSV delimiter(char delimiter) {
+        assert delimiter < 128 && delimiter != '"';
+        this.delimiter = (byte) delimiter;
+        return this;
+    }
+
+    public static List<List<String>> readRows(Path path) throws IOException {
+        try (FastCSV csv = new FastCSV(path)) {
+            List<List<String>> rows = new ArrayList<>();
+            while (csv.nextRow()) {
+                String[] row = new String[csv.getColumnCount()];
+                for (int i = 0; i < row.length; i++) row[i] = csv.getString(i);
+                rows.add(Arrays.asList(row));
+            }
+            return rows;
+        }
+    }
+
+    // every column as a primitive array; columns that don't parse as numbers on the first row are label-coded
+    public static double[][] readColumns(Path path, boolean skipHeader) throws IOException {
+        try (FastCSV csv = new FastCSV(path)) {
+            if (skipHeader) csv.nextRow();
+            double[][] columns = null;
+            boolean[] numeric = null;
+            int rows = 0;
+            while (csv.nextRow()) {
+                if (columns == null) {
+                    columns = new double[csv.getColumnCount()][1024];
+                    numeric = new boolean[columns.length];
+                    for (int c = 0; c < columns.length; c++) numeric[c] = csv.isNumber(c);
+                } else if (rows == columns[0].length) {
+                    for (int c = 0; c < columns.length; c++) columns[c] = Arrays.copyOf(columns[c], rows * 2);
+                }
+                for (int c = 0; c < columns.length; c++) columns[c][rows] = numeric[c] ? csv.getDouble(c) : csv.getCategory(c);
+                rows++;
+            }
+            if (columns == null) return new double[0][];
+            for (int c = 0; c < columns.length; c++) columns[c] = Arrays.copyOf(columns[c], rows);
+            return columns;
+        }
+    }
+
+    public boolean nextRow() throws IOException {
+        columns = 0;
+        rowStart = position;
+        for (;;) {
+            int cursor = rowStart, column = 0;
+            boolean complete = false;
+            // scan the row from its start, a row that runs past the buffered bytes is rescanned after a refill
+            scan: while (true) {
+                if (column == starts.length) grow();
+                if (cursor < limit && bytes[cursor] == '"') {
+                    int start = ++cursor;
+                    boolean escapes = false;
+                    while (true) {
+                        // an unterminated quote runs to the end of the file
+                        if (cursor >= limit) {
+                            if (!endOfFile) break scan;
+                            break;
+                        }
+                        if (bytes[cursor] == '"') {
+                            if (cursor + 1 >= limit && !endOfFile) break scan;
+                            if (cursor + 1 < limit && bytes[cursor + 1] == '"') {
+                                escapes = true;
+                                cursor += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        cursor++;
+                    }
+                    starts[column] = start;
+                    ends[column] = cursor;
+                    escaped[column] = escapes;
+                    if (cursor < limit) cursor++;
+                    // anything between the closing quote and the delimiter is dropped
+                    cursor = cellEnd(cursor);
+                } else {
+                    int start = cursor;
+                    cursor = cellEnd(cursor);
+                    starts[column] = start;
+                    ends[column] = cursor;
+                    escaped[column] = false;
+                }
+                column++;
+                if (cursor >= limit) {
+                    if (!endOfFile) break;
+                    complete = true;
+                    break;
+                }
+                byte separator = bytes[cursor++];
+                if (separator == delimiter) continue;
+                if (separator == '\r') {
+                    if (cursor >= limit && !endOfFile) break;
+                    if (cursor < limit && bytes[cursor] == '\n') cursor++;
+                }
+                complete = true;
+                break;
+            }
+            if (complete) {
+                position = cursor;
+                // blank lines are skipped, a file that ends with a newline has no extra empty row
+                if (column == 1 && starts[0] == ends[0] && !(rowStart < limit && bytes[rowStart] == '"')) {
+                    if (cursor >= limit && endOfFile) return false;
+                    rowStart = position;
+                    continue;
+                }
+                columns = column;
+                return true;
+            }
+            refill();
+        }
+    }
+
+    private int cellEnd(int cursor) {
+        byte[] bytes = this.bytes;
+        byte delimiter = this.delimiter;
+        for (int limit = this.limit; cursor < limit; cursor++) {
+            byte b = bytes[cursor];
+            if (b == delimiter || b == '\n' || b == '\r') break;
+        }
+        return cursor;
+    }
+
+    // keeps the unfinished row, moving it to the front of the buffer or into a bigger one
+    private void refill() throws IOException {
+        int kept = limit - rowStart;
+        if (rowStart == 0 && limit == bytes.length) {
+            ByteBuffer bigger = ByteBuffer.allocate(bytes.length * 2);
+            bigger.put(bytes, 0, limit);
+            buffer = bigger;
+            bytes = bigger.array();
+        } else {
+            System.arraycopy(bytes, rowStart, bytes, 0, kept);
+        }
+        buffer.limit(bytes.length).position(kept);
+        int read = 0;
+        while (buffer.hasRemaining() && (read = channel.read(buffer)) > 0) { }
+        if (read < 0) endOfFile = true;
+        limit = buffer.position();
+        position = 0;
+        rowStart = 0;
+    }
+
+    private void grow() {
+        starts = Arrays.copyOf(starts, starts.length * 2);
+        ends = Arrays.copyOf(ends, ends.length * 2);
+        escaped = Arrays.copyOf(escaped, escaped.length * 2);
+    }
+
+    public int getColumnCount() {
+        return columns;
+    }
+
+    public String getString(int column) {
+        assert column < columns;
+        String value = new String(bytes, starts[column], ends[column] - starts[column], StandardCharsets.UTF_8);
+        return escaped[column] ? value.replace("\"\"", "\"") : value;
+    }
+
+    public boolean isNumber(int column) {
+        assert column < columns;
+        int i = starts[column], end = ends[column];
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) i++;
+        boolean digits = false;
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') digits = true;
+            else if (b != '.' && b != 'e' && b != 'E' && b != '-' && b != '+') return false;
+        }
+        return digits;
+    }
+
+    // exact: up to 18 digits and exponents within 22 take the fast path, anything else goes through Double.parseDouble
+    public double getDouble(int column) {
+        assert column < columns;
+        byte[] bytes = this.bytes;
+        int i = starts[column], end = ends[column];
+        if (i < end && bytes[i] == ' ' || end > i && bytes[end - 1] == ' ') return slowDouble(column);
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) negative = bytes[i++] == '-';
+        long mantissa = 0;
+        int digitsStart = i, exponent = 0;
+        for (int digit; i < end && (digit = bytes[i] - '0') >= 0 && digit <= 9; i++) mantissa = mantissa * 10 + digit;
+        int digits = i - digitsStart;
+        if (i < end && bytes[i] == '.') {
+            int fractionStart = ++i;
+            for (int digit; i < end && (digit = bytes[i] - '0') >= 0 && digit <= 9; i++) mantissa = mantissa * 10 + digit;
+            exponent = fractionStart - i;
+            digits -= exponent;
+        }
+        if (digits == 0 || digits > 18) return slowDouble(column);
+        if (i < end) {
+            if ((bytes[i] != 'e' && bytes[i] != 'E') || ++i == end) return slowDouble(column);
+            boolean negativeExponent = false;
+            if (bytes[i] == '-' || bytes[i] == '+') negativeExponent = bytes[i++] == '-';
+            int value = 0, exponentStart = i;
+            for (int digit; i < end && (digit = bytes[i] - '0') >= 0 && digit <= 9 && value < 100_000; i++) value = value * 10 + digit;
+            if (i != end || i == exponentStart) return slowDouble(column);
+            exponent += negativeExponent ? -value : value;
+        }
+        if (mantissa >= 1L << 53 || exponent < -22 || exponent > 22) return slowDouble(column);
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    private double slowDouble(int column) {
+        return Double.parseDouble(getString(column).trim());
+    }
+
+    // label code of a text cell: values are numbered per column in order of first appearance
+    public int getCategory(int column) {
+        assert column < columns;
+        if (column >= categories.length) categories = Arrays.copyOf(categories, column + 1);
+        Categories values = categories[column];
+        if (values == null) values = categories[column] = new Categories();
+        return values.code(bytes, starts[column], ends[column], escaped[column]);
+    }
+
+    // target[offset + code] = 1, the other count - 1 slots are cleared
+    public int getOneHot(int column, double[] target, int offset, int count) {
+        int code = getCategory(column);
+        assert code < count;
+        Arrays.fill(target, offset, offset + count, 0d);
+        target[offset + code] = 1;
+        return code;
+    }
+
+    public List<String> getCategories(int column) {
+        return column < categories.length && categories[column] != null ? categories[column].names : List.of();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // open addressing over the raw bytes, a String is only created for a value seen the first time
+    private static final class Categories {
+
+        private final List<String> names = new ArrayList<>();
+        private final List<byte[]> keys = new ArrayList<>();
+        private int[] table = new int[16];
+
+        int code(byte[] bytes, int from, int to, boolean escaped) {
+            // a handful of labels is the usual case, comparing them directly beats hashing the cell
+            if (keys.size() <= 8) {
+                for (int entry = 0; entry < keys.size(); entry++) {
+                    byte[] key = keys.get(entry);
+                    if (key.length == to - from && Arrays.equals(key, 0, key.length, bytes, from, to)) return entry;
+                }
+            }
+            int hash = 1;
+            for (int i = from; i < to; i++) hash = 31 * hash + bytes[i];
+            int mask = table.length - 1;
+            for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+                int entry = table[slot] - 1;
+                if (entry < 0) break;
+                if (Arrays.equals(keys.get(entry), 0, keys.get(entry).length, bytes, from, to)) return entry;
+            }
+            byte[] key = Arrays.copyOfRange(bytes, from, to);
+            keys.add(key);
+            String name = new String(key, StandardCharsets.UTF_8);
+            names.add(escaped ? name.replace("\"\"", "\"") : name);
+            if (keys.size() * 2 > table.length) rehash();
+            else insert(hash, keys.size());
+            return keys.size() - 1;
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            for (int entry = 0; entry < keys.size(); entry++) {
+                int hash = 1;
+                for (byte b : keys.get(entry)) hash = 31 * hash + b;
+                insert(hash, entry + 1);
+            }
+        }
+
+        private void insert(int hash, int entry) {
+            int mask = table.length - 1, slot = mix(hash) & mask;
+            while (table[slot] != 0) slot = (slot + 1) & mask;
+            table[slot] = entry;
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+    }
+
+}
@@ -0,0 +1,166 @@
+package me.hivaze.neural;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// SIMD kernels on jdk.incubator.vector, loaded reflectively by Kernels when the module is resolved.
+// Dots keep two vector accumulators and fuse multiply-add; heap and buffer variants walk identical lanes
+final class VectorKernels implements KernelBackend {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    // as many float lanes as double lanes, so floats widen into one double vector
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED.withShape(VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+    private static final int LANES = DOUBLES.length();
+    // as many byte lanes as int lanes, but never under the 64-bit shape: on 128-bit hosts a byte vector widens
+    // into two int vectors, one part at a time
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED.withShape(VectorShape.forBitSize(Math.max(64, INTS.vectorBitSize() / 4)));
+    private static final int BYTE_PARTS = BYTES.length() / INTS.length();
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    @Override
+    public double dot(double[] weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        DoubleVector a0 = DoubleVector.zero(DOUBLES), a1 = DoubleVector.zero(DOUBLES);
+        int i = 0;
+        for (int bound = length - length % (2 * LANES); i < bound; i += 2 * LANES) {
+            a0 = DoubleVector.fromArray(DOUBLES, weights, weightsOffset + i).fma(DoubleVector.fromArray(DOUBLES, inputs, inputsOffset + i), a0);
+            a1 = DoubleVector.fromArray(DOUBLES, weights, weightsOffset + i + LANES).fma(DoubleVector.fromArray(DOUBLES, inputs, inputsOffset + i + LANES), a1);
+        }
+        double sum = a0.add(a1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) sum += weights[weightsOffset + i] * inputs[inputsOffset + i];
+        return sum;
+    }
+
+    @Override
+    public double dotDoubles(ByteBuffer weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        DoubleVector a0 = DoubleVector.zero(DOUBLES), a1 = DoubleVector.zero(DOUBLES);
+        int i = 0;
+        for (int bound = length - length % (2 * LANES); i < bound; i += 2 * LANES) {
+            a0 = DoubleVector.fromByteBuffer(DOUBLES, weights, (weightsOffset + i) << 3, ORDER).fma(DoubleVector.fromArray(DOUBLES, inputs, inputsOffset + i), a0);
+            a1 = DoubleVector.fromByteBuffer(DOUBLES, weights, (weightsOffset + i + LANES) << 3, ORDER).fma(DoubleVector.fromArray(DOUBLES, inputs, inputsOffset + i + LANES), a1);
+        }
+        double sum = a0.add(a1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) sum += weights.getDouble((weightsOffset + i) << 3) * inputs[inputsOffset + i];
+        return sum;
+    }
+
+    @Override
+    public double dot(float[] weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        DoubleVector a0 = DoubleVector.zero(DOUBLES);
+        int i = 0;
+        for (int bound = length - length % LANES; i < bound; i += LANES) {
+            DoubleVector widened = (DoubleVector) FloatVector.fromArray(FLOATS, weights, weightsOffset + i).convertShape(VectorOperators.F2D, DOUBLES, 0);
+            a0 = widened.fma(DoubleVector.fromArray(DOUBLES, inputs, inputsOffset + i), a0);
+        }
+        double sum = a0.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) sum += weights[weightsOffset + i] * inputs[inputsOffset + i];
+        return sum;
+    }
+
+    @Override
+    public double dotFloats(ByteBuffer weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        DoubleVector a0 = DoubleVector.zero(DOUBLES);
+        int i = 0;
+        for (int bound = length - length % LANES; i < bound; i += LANES) {
+            DoubleVector widened = (DoubleVector) FloatVector.fromByteBuffer(FLOATS, weights, (weightsOffset + i) << 2, ORDER).convertShape(VectorOperators.F2D, DOUBLES, 0);
+            a0 = widened.fma(DoubleVector.fromArray(DOUBLES, inputs, inputsOffset + i), a0);
+        }
+        double sum = a0.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) sum += weights.getFloat((weightsOffset + i) << 2) * inputs[inputsOffset + i];
+        return sum;
+    }
+
+    @Override
+    public float dotSingle(float[] weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        FloatVector a0 = FloatVector.zero(FLOATS);
+        int i = 0;
+        for (int bound = length - length % LANES; i < bound; i += LANES) {
+            FloatVector narrowed = (FloatVector) DoubleVector.fromArray(DOUBLES, inputs, inputsOffset + i).convertShape(VectorOperators.D2F, FLOATS, 0);
+            a0 = FloatVector.fromArray(FLOATS, weights, weightsOffset + i).fma(narrowed, a0);
+        }
+        float sum = a0.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) sum += weights[weightsOffset + i] * (float) inputs[inputsOffset + i];
+        return sum;
+    }
+
+    @Override
+    public float dotFloatsSingle(ByteBuffer weights, int weightsOffset, double[] inputs, int inputsOffset, int length) {
+        FloatVector a0 = FloatVector.zero(FLOATS);
+        int i = 0;
+        for (int bound = length - length % LANES; i < bound; i += LANES) {
+            FloatVector narrowed = (FloatVector) DoubleVector.fromArray(DOUBLES, inputs, inputsOffset + i).convertShape(VectorOperators.D2F, FLOATS, 0);
+            a0 = FloatVector.fromByteBuffer(FLOATS, weights, (weightsOffset + i) << 2, ORDER).fma(narrowed, a0);
+        }
+        float sum = a0.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) sum += weights.getFloat((weightsOffset + i) << 2) * (float) inputs[inputsOffset + i];
+        return sum;
+    }
+
+    @Override
+    public int dot(byte[] weights, int weightsOffset, byte[] inputs, int length) {
+        IntVector a0 = IntVector.zero(INTS);
+        int i = 0, lanes = BYTES.length();
+        for (int bound = length - length % lanes; i < bound; i += lanes) {
+            ByteVector w = ByteVector.fromArray(BYTES, weights, weightsOffset + i), x = ByteVector.fromArray(BYTES, inputs, i);
+            for (int part = 0; part < BYTE_PARTS; part++) {
+                IntVector product = ((IntVector) w.convertShape(VectorOperators.B2I, INTS, part)).mul((IntVector) x.convertShape(VectorOperators.B2I, INTS, part));
+                a0 = product.add(a0);
+            }
+        }
+        int sum = a0.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) sum += weights[weightsOffset + i] * inputs[i];
+        return sum;
+    }
+
+    // multiply then add, no fma, so updates stay bit-identical to the scalar backend
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        int i = 0;
+        for (int bound = length - length % LANES; i < bound; i += LANES) {
+            DoubleVector.fromArray(DOUBLES, x, xOffset + i).mul(alpha).add(DoubleVector.fromArray(DOUBLES, y, yOffset + i)).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) y[yOffset + i] += alpha * x[xOffset + i];
+    }
+
+    @Override
+    public void axpy(double alpha, float[] x, int xOffset, double[] y, int yOffset, int length) {
+        int i = 0;
+        for (int bound = length - length % LANES; i < bound; i += LANES) {
+            DoubleVector widened = (DoubleVector) FloatVector.fromArray(FLOATS, x, xOffset + i).convertShape(VectorOperators.F2D, DOUBLES, 0);
+            widened.mul(alpha).add(DoubleVector.fromArray(DOUBLES, y, yOffset + i)).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) y[yOffset + i] += alpha * x[xOffset + i];
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, float[] y, int yOffset, int length) {
+        int i = 0;
+        for (int bound = length - length % LANES; i < bound; i += LANES) {
+            FloatVector step = (FloatVector) DoubleVector.fromArray(DOUBLES, x, xOffset + i).mul(alpha).convertShape(VectorOperators.D2F, FLOATS, 0);
+            step.add(FloatVector.fromArray(FLOATS, y, yOffset + i)).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) y[yOffset + i] += (float) (alpha * x[xOffset + i]);
+    }
+
+    // only ReLU is vectorised: lanewise EXP and TANH give different ulps once C2 intrinsifies them,
+    // which would make the same input produce different outputs over the life of the JVM
+    @Override
+    public void activate(Neuron.Activation activation, double[] rawSums, double[] result, int length) {
+        int i = 0;
+        if (activation == Neuron.Activation.ReLU) {
+            for (int bound = length - length % LANES; i < bound; i += LANES) {
+                DoubleVector.fromArray(DOUBLES, rawSums, i).max(0d).intoArray(result, i);
+            }
+        }
+        for (; i < length; i++) result[i] = activation.apply(rawSums[i]);
+    }
+
+}
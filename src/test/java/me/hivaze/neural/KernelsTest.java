@@ -0,0 +1,51 @@
+package me.hivaze.neural;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// next to the kernels since both backends are package-private
+public class KernelsTest {
+
+    @Test
+    public void vectorMatchesScalarTest() throws ReflectiveOperationException {
+        KernelBackend vector;
+        try {
+            vector = (KernelBackend) Class.forName("me.hivaze.neural.VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            Assumptions.assumeTrue(false, "VectorKernels is only built with -P vector");
+            return;
+        }
+        System.out.println("Vector kernels in use: " + Kernels.isVectorized() + ", " + preferredBitSize() + " bits");
+        KernelBackend scalar = new ScalarKernels();
+        // every remainder of the vector loops, with the arrays starting at odd offsets
+        for (int length = 0; length <= 67; length++) {
+            for (int offset = 0; offset <= 5; offset++) {
+                assertTrue(Kernels.agrees(vector, scalar, length, offset), "length " + length + ", offset " + offset);
+            }
+        }
+    }
+
+    // the vector profile runs this class once more with -XX:MaxVectorSize=16, the SSE and NEON width
+    @Test
+    public void vectorizedTest() throws ReflectiveOperationException {
+        try {
+            Class.forName("me.hivaze.neural.VectorKernels");
+        } catch (ClassNotFoundException e) {
+            Assumptions.assumeTrue(false, "VectorKernels is only built with -P vector");
+        }
+        Assumptions.assumeFalse("scalar".equals(System.getProperty("me.hivaze.neural.kernels")));
+        String expected = System.getProperty("me.hivaze.neural.test.vectorBits");
+        if (expected != null) assertEquals(Integer.parseInt(expected), preferredBitSize());
+        assertTrue(Kernels.isVectorized(), "vector kernels failed to load at " + preferredBitSize() + " bits");
+    }
+
+    // the tests compile without jdk.incubator.vector
+    private static int preferredBitSize() throws ReflectiveOperationException {
+        Object species = Class.forName("jdk.incubator.vector.DoubleVector").getField("SPECIES_PREFERRED").get(null);
+        return (int) Class.forName("jdk.incubator.vector.VectorSpecies").getMethod("vectorBitSize").invoke(species);
+    }
+
+}
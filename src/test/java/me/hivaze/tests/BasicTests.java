@@ -1,17 +1,47 @@
 package me.hivaze.tests;
 
+import me.hivaze.neural.BackPropagationTrainer;
+import me.hivaze.neural.CompiledNetwork;
+import me.hivaze.neural.InferenceCache;
 import me.hivaze.neural.NeuralNetwork;
 import me.hivaze.neural.Neuron;
+import me.hivaze.neural.NeuronLayer;
+import me.hivaze.neural.SparseNetwork;
+import me.hivaze.server.InferenceServer;
+import me.hivaze.server.ServerStats;
+import me.hivaze.utils.FastCSV;
+import me.hivaze.utils.Pair;
+import me.hivaze.utils.SimpleCSV;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class BasicTests {
 
@@ -26,6 +56,238 @@ public class BasicTests {
         assertEquals(neuralNetwork.getInitializationMethod(), NeuralNetwork.Initialization.RANDOM);
     }
 
+    @Test
+    public void neuronViewTest() {
+        NeuralNetwork neuralNetwork = new NeuralNetwork(3, new int[] { 4 }, 2, random,
+                Neuron.Activation.TANH, NeuralNetwork.Initialization.RANDOM).randomise();
+        NeuronLayer hidden = neuralNetwork.getHiddenLayers()[0];
+        assertEquals(hidden.getWeights().length(), 4 * 3);
+        Neuron neuron = hidden.getNeuron(2);
+        neuron.setWeight(1, 0.25).setupBias(-0.5);
+        assertEquals(hidden.getWeights().get(2 * 3 + 1), 0.25);
+        assertEquals(hidden.getBiases().get(2), -0.5);
+        double[] input = { 0.1, -0.2, 0.3 };
+        double[] layerOutput = hidden.output(input);
+        for (int i = 0; i < hidden.getSize(); i++) {
+            assertEquals(layerOutput[i], hidden.getNeuron(i).output(input, 0));
+        }
+    }
+
+    @Test
+    public void batchOutputTest() {
+        NeuralNetwork neuralNetwork = new NeuralNetwork(30, new int[] { 50, 40 }, 3, random,
+                Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW).randomise();
+        double[][] inputs = new double[11][];
+        for (int i = 0; i < inputs.length; i++) inputs[i] = random.doubles().limit(30).toArray();
+        double[][] answers = neuralNetwork.output(inputs);
+        for (int i = 0; i < inputs.length; i++) {
+            assertArrayEquals(neuralNetwork.output(inputs[i]), answers[i], 1e-12);
+        }
+    }
+
+    @Test
+    public void concurrentOutputTest() throws InterruptedException, ExecutionException {
+        NeuralNetwork neuralNetwork = new NeuralNetwork(20, new int[] { 64, 32 }, 4, random,
+                Neuron.Activation.SIGMOID, NeuralNetwork.Initialization.NGUYEN_WIDROW).randomise();
+        double[][] inputs = new double[256][];
+        double[][] expected = new double[inputs.length][];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = random.doubles().limit(20).toArray();
+            expected[i] = neuralNetwork.output(inputs[i]);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int repeat = 0; repeat < 20; repeat++) {
+                        for (int i = 0; i < inputs.length; i++) {
+                            assertArrayEquals(expected[i], neuralNetwork.output(inputs[i]));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void inferenceCacheTest() throws InterruptedException, ExecutionException {
+        NeuralNetwork neuralNetwork = new NeuralNetwork(20, new int[] { 64, 32 }, 4, random,
+                Neuron.Activation.SIGMOID, NeuralNetwork.Initialization.NGUYEN_WIDROW).randomise();
+        InferenceCache cache = new InferenceCache(neuralNetwork, 1024);
+        double[][] inputs = new double[64][];
+        for (int i = 0; i < inputs.length; i++) inputs[i] = random.doubles().limit(20).toArray();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int repeat = 0; repeat < 20; repeat++) {
+                        for (double[] input : inputs) assertArrayEquals(neuralNetwork.output(input), cache.output(input));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+        } finally {
+            executor.shutdown();
+        }
+        System.out.println("Hit rate " + cache.getHitRate() + ", " + cache.getCapacity() + " entries in " + cache.getBytes() + " bytes");
+        assertTrue(cache.getHitRate() > 0.9);
+        // every kind of weight change invalidates what was cached
+        neuralNetwork.randomise();
+        assertArrayEquals(neuralNetwork.output(inputs[0]), cache.output(inputs[0]));
+        neuralNetwork.getHiddenLayers()[0].normalize(0.01);
+        assertArrayEquals(neuralNetwork.output(inputs[0]), cache.output(inputs[0]));
+        neuralNetwork.getOutputLayer().getNeuron(0).setupBias(5);
+        assertArrayEquals(neuralNetwork.output(inputs[0]), cache.output(inputs[0]));
+        // inputs rounding to the same multiples of the tolerance share an entry, both sides of a boundary don't
+        cache.tolerance(1e-3);
+        double[] close = inputs[1].clone(), across = inputs[1].clone();
+        inputs[1][0] = 0.2504;
+        close[0] = 0.2496;
+        across[0] = 0.2506;
+        double[] cached = cache.output(inputs[1]);
+        assertArrayEquals(cached, cache.output(close));
+        assertArrayEquals(neuralNetwork.output(across), cache.output(across));
+        // more distinct inputs than entries still give right answers
+        long hits = cache.getHits();
+        for (int i = 0; i < 1000; i++) {
+            double[] input = random.doubles().limit(20).toArray();
+            assertArrayEquals(neuralNetwork.output(input), cache.output(input));
+        }
+        assertEquals(hits, cache.getHits());
+        assertTrue(cache.getEvictions() > 0);
+    }
+
+    @Test
+    public void compiledNetworkTest() {
+        // the 64 x 64 layer is past the unroll limit and goes through the kernels
+        int[][] topologies = { { 4, 8, 4, 8, 1 }, { 10, 64, 64, 3 } };
+        for (int[] topology : topologies) {
+            for (Neuron.Activation activation : Neuron.Activation.values()) {
+                NeuralNetwork neuralNetwork = new NeuralNetwork(topology[0], Arrays.copyOfRange(topology, 1, topology.length - 1), topology[topology.length - 1],
+                        random, activation, NeuralNetwork.Initialization.NGUYEN_WIDROW).randomise();
+                CompiledNetwork compiled = neuralNetwork.compile();
+                for (int i = 0; i < 100; i++) {
+                    double[] inputs = random.doubles(topology[0], -1, 1).toArray();
+                    assertArrayEquals(neuralNetwork.output(inputs), compiled.output(inputs), 1e-12);
+                }
+            }
+        }
+        NeuralNetwork neuralNetwork = new NeuralNetwork(4, new int[] { 8, 4, 8 }, 1, random, Neuron.Activation.ReLU, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                .randomise();
+        CompiledNetwork compiled = neuralNetwork.compile();
+        double[][] inputs = new double[64][];
+        for (int i = 0; i < inputs.length; i++) inputs[i] = random.doubles(4, -1, 1).toArray();
+        long[] nanos = new long[2];
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 200_000; i++) neuralNetwork.output(inputs[i & 63]);
+            nanos[0] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < 200_000; i++) compiled.output(inputs[i & 63]);
+            nanos[1] = System.nanoTime() - start;
+        }
+        System.out.println("Iris topology per call: generic " + nanos[0] / 200_000 + " ns, compiled " + nanos[1] / 200_000 + " ns");
+    }
+
+    @Test
+    public void initializationTest() {
+        long seed = random.nextLong();
+        for (NeuralNetwork.Initialization initialization : NeuralNetwork.Initialization.values()) {
+            double[][] weights = new double[2][];
+            int[] parallelisms = { 1, 4 };
+            for (int i = 0; i < parallelisms.length; i++) {
+                // off-heap for one of them, chunks write disjoint parts of the same buffer
+                NeuralNetwork neuralNetwork = new NeuralNetwork(300, new int[] { 400 }, 200, new Random(seed), Neuron.Activation.ReLU, initialization,
+                        NeuralNetwork.Precision.DOUBLE, i == 0 ? NeuralNetwork.Memory.HEAP : NeuralNetwork.Memory.OFF_HEAP).randomise(parallelisms[i]);
+                NeuronLayer hidden = neuralNetwork.getHiddenLayers()[0];
+                weights[i] = new double[hidden.getWeights().length()];
+                hidden.getWeights().copyTo(weights[i]);
+            }
+            assertArrayEquals(weights[0], weights[1]);
+            double sum = 0, squares = 0, largest = 0;
+            for (double weight : weights[0]) {
+                sum += weight;
+                squares += weight * weight;
+                largest = Math.max(largest, Math.abs(weight));
+            }
+            double mean = sum / weights[0].length, deviation = Math.sqrt(squares / weights[0].length - mean * mean);
+            System.out.println(initialization + ": mean " + mean + ", deviation " + deviation + ", largest " + largest);
+            assertEquals(0, mean, 0.01);
+            if (initialization == NeuralNetwork.Initialization.XAVIER) assertTrue(largest <= Math.sqrt(6d / (300 + 400)));
+            if (initialization == NeuralNetwork.Initialization.HE) assertEquals(Math.sqrt(2d / 300), deviation, 0.01 * Math.sqrt(2d / 300));
+        }
+    }
+
+    @Test
+    public void offHeapTest() {
+        List<Pair<double[]>> examples = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            double[] inputs = random.doubles(6, -1, 1).toArray();
+            examples.add(new Pair<>(inputs, new double[] { Math.sin(inputs[0] + inputs[1]), inputs[2] * inputs[3] }));
+        }
+        long seed = random.nextLong();
+        for (NeuralNetwork.Precision precision : NeuralNetwork.Precision.values()) {
+            double[][] answers = new double[2][];
+            for (NeuralNetwork.Memory memory : NeuralNetwork.Memory.values()) {
+                NeuralNetwork neuralNetwork = new NeuralNetwork(6, new int[] { 16, 8 }, 2, new Random(seed), Neuron.Activation.TANH,
+                        NeuralNetwork.Initialization.NGUYEN_WIDROW, precision, memory).randomise();
+                new BackPropagationTrainer(neuralNetwork).learningSpeed(0.05).batchSize(4).train(examples, new double[] { 0, 0 }, 20);
+                answers[memory.ordinal()] = neuralNetwork.output(examples.get(0).getFirst());
+            }
+            assertArrayEquals(answers[0], answers[1]);
+        }
+        // about 170 MB of weights, the heap only holds the layer objects
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        NeuralNetwork neuralNetwork = new NeuralNetwork(500, new int[] { 2000, 5000, 2000 }, 100, random, Neuron.Activation.SIGMOID,
+                NeuralNetwork.Initialization.NGUYEN_WIDROW, NeuralNetwork.Precision.DOUBLE, NeuralNetwork.Memory.OFF_HEAP).randomise();
+        long heapGrowth = runtime.totalMemory() - runtime.freeMemory() - heapBefore;
+        System.out.println("Off-heap network output " + Arrays.toString(Arrays.copyOf(neuralNetwork.output(new double[500]), 3)) + ", heap growth " + (heapGrowth >> 20) + " MB");
+        assertTrue(heapGrowth < 64 << 20);
+    }
+
+    @Test
+    public void inferenceServerTest() throws IOException, InterruptedException, ExecutionException {
+        NeuralNetwork neuralNetwork = new NeuralNetwork(20, new int[] { 64, 32 }, 4, random,
+                Neuron.Activation.SIGMOID, NeuralNetwork.Initialization.NGUYEN_WIDROW).randomise();
+        InferenceServer server = new InferenceServer(neuralNetwork).maxBatchSize(32).maxDelay(500)
+                .start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        try {
+            URI predict = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/predict");
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            double[][] inputs = new double[400][];
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = random.doubles(20, -1, 1).toArray();
+                responses.add(client.sendAsync(HttpRequest.newBuilder(predict).POST(HttpRequest.BodyPublishers.ofString(Arrays.toString(inputs[i]))).build(),
+                        HttpResponse.BodyHandlers.ofString()));
+            }
+            for (int i = 0; i < inputs.length; i++) {
+                HttpResponse<String> response = responses.get(i).get();
+                assertEquals(200, response.statusCode());
+                String body = response.body();
+                double[] answer = Arrays.stream(body.substring(1, body.length() - 1).split(",")).mapToDouble(Double::parseDouble).toArray();
+                assertArrayEquals(neuralNetwork.output(inputs[i]), answer, 1e-12);
+            }
+            HttpResponse<String> bad = client.send(HttpRequest.newBuilder(predict).POST(HttpRequest.BodyPublishers.ofString("[1, 2]")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(400, bad.statusCode());
+            assertEquals("{\"error\":\"Expected 20 inputs, got 2\"}", bad.body());
+            ServerStats stats = server.getStats();
+            System.out.println("Inference server: " + stats);
+            assertEquals(inputs.length, stats.getRequests());
+            assertTrue(stats.getBatches() <= inputs.length && stats.getP50Nanos() <= stats.getP99Nanos());
+        } finally {
+            server.stop();
+        }
+    }
+
     @Test
     public void serializationTest(@TempDir Path tempDir) throws IOException, ClassNotFoundException {
         Path destination = tempDir.resolve("test.dnn");
@@ -33,7 +295,9 @@ public class BasicTests {
                 Neuron.Activation.SIGMOID, NeuralNetwork.Initialization.NGUYEN_WIDROW).randomise();
         neuralNetwork.saveTo(destination);
         System.out.println("File size: " + destination.toFile().length());
+        long loadStart = System.nanoTime();
         NeuralNetwork loadedNetwork = new NeuralNetwork(destination);
+        System.out.println("Load time: " + (System.nanoTime() - loadStart) / 1_000_000 + " ms");
         assertEquals(neuralNetwork.getInputLayer().getNeurons().length, loadedNetwork.getInputLayer().getNeurons().length);
         assertEquals(neuralNetwork.getHiddenLayers().length, loadedNetwork.getHiddenLayers().length);
         for (int i = 0; i < loadedNetwork.getHiddenLayers().length; i++) {
@@ -45,4 +309,100 @@ public class BasicTests {
         System.out.println(Arrays.toString(loadedNetwork.output(input)));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void saveOverLoadedTest(@TempDir Path tempDir) throws IOException {
+        Path destination = tempDir.resolve("model.dnn");
+        new NeuralNetwork(20, new int[] { 64, 32 }, 4, random, Neuron.Activation.SIGMOID, NeuralNetwork.Initialization.NGUYEN_WIDROW).randomise().saveTo(destination);
+        // its weights are mapped from the very file it is saved to
+        NeuralNetwork loadedNetwork = new NeuralNetwork(destination);
+        loadedNetwork.getOutputLayer().getNeuron(0).setupBias(0.5);
+        loadedNetwork.saveTo(destination);
+        double[] input = random.doubles().limit(20).toArray();
+        assertArrayEquals(loadedNetwork.output(input), new NeuralNetwork(destination).output(input));
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void loadedRandomTest(@TempDir Path tempDir) throws IOException {
+        Path destination = tempDir.resolve("model.dnn");
+        new NeuralNetwork(20, new int[] { 64 }, 4, random, Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW).saveTo(destination);
+        long seed = random.nextLong();
+        double[][] weights = new double[2][];
+        for (int i = 0; i < weights.length; i++) {
+            NeuronLayer hidden = new NeuralNetwork(destination, new Random(seed)).randomise().getHiddenLayers()[0];
+            weights[i] = new double[hidden.getWeights().length()];
+            hidden.getWeights().copyTo(weights[i]);
+        }
+        assertArrayEquals(weights[0], weights[1]);
+    }
+
+    @Test
+    public void corruptModelTest(@TempDir Path tempDir) throws IOException {
+        Path destination = tempDir.resolve("model.dnn");
+        NeuralNetwork neuralNetwork = new NeuralNetwork(20, new int[] { 64 }, 4, random, Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW).randomise();
+        neuralNetwork.saveTo(destination);
+        byte[] model = Files.readAllBytes(destination);
+        Files.write(destination, Arrays.copyOf(model, model.length / 2));
+        assertThrows(IOException.class, () -> new NeuralNetwork(destination));
+        // not grown by mapping the missing blocks
+        assertEquals(model.length / 2, Files.size(destination));
+        // activation of the input layer
+        Files.write(destination, ByteBuffer.wrap(model.clone()).order(ByteOrder.LITTLE_ENDIAN).putInt(28, 99).array());
+        assertThrows(IOException.class, () -> new NeuralNetwork(destination));
+        // the hidden layer claiming 21 inputs
+        Files.write(destination, ByteBuffer.wrap(model.clone()).order(ByteOrder.LITTLE_ENDIAN).putInt(36, 21).array());
+        assertThrows(IOException.class, () -> new NeuralNetwork(destination));
+        new SparseNetwork(neuralNetwork).saveTo(destination);
+        model = Files.readAllBytes(destination);
+        // first column of the hidden layer, after the header, the input layer, its non-zero count and row starts
+        Files.write(destination, ByteBuffer.wrap(model).order(ByteOrder.LITTLE_ENDIAN).putInt(56 + 2 * 20 * Double.BYTES + Long.BYTES + 264, 20).array());
+        assertThrows(IOException.class, () -> new SparseNetwork(destination));
+    }
+
+    @Test
+    public void floatPrecisionTest(@TempDir Path tempDir) throws IOException {
+        long[] fileSizes = new long[NeuralNetwork.Precision.values().length];
+        for (NeuralNetwork.Precision precision : NeuralNetwork.Precision.values()) {
+            Path destination = tempDir.resolve(precision + ".dnn");
+            NeuralNetwork neuralNetwork = new NeuralNetwork(20, new int[] { 64, 32 }, 4, random,
+                    Neuron.Activation.SIGMOID, NeuralNetwork.Initialization.NGUYEN_WIDROW, precision).randomise().saveTo(destination);
+            fileSizes[precision.ordinal()] = destination.toFile().length();
+            NeuralNetwork loadedNetwork = new NeuralNetwork(destination);
+            assertEquals(precision, loadedNetwork.getPrecision());
+            double[] input = random.doubles().limit(20).toArray();
+            assertArrayEquals(neuralNetwork.output(input), loadedNetwork.output(input));
+        }
+        assertTrue(fileSizes[NeuralNetwork.Precision.FLOAT.ordinal()] < 0.55 * fileSizes[NeuralNetwork.Precision.DOUBLE.ordinal()]);
+    }
+
+    @Test
+    public void csvTest(@TempDir Path tempDir) throws IOException {
+        Path csv = tempDir.resolve("test.csv");
+        Files.writeString(csv, "x,y,label\r\n1.5,-2e3,cat\n\n\"0.1\", 7 ,\"dog, \"\"big\"\"\"\r\n123456789012345678901,.5,cat\n-0.000001,1E-30,\"multi\nline\"");
+        try (FastCSV reader = new FastCSV(csv)) {
+            List<double[]> numbers = new ArrayList<>();
+            List<Integer> labels = new ArrayList<>();
+            reader.nextRow();
+            assertEquals("label", reader.getString(2));
+            while (reader.nextRow()) {
+                assertEquals(3, reader.getColumnCount());
+                numbers.add(new double[] { reader.getDouble(0), reader.getDouble(1) });
+                labels.add(reader.getCategory(2));
+            }
+            assertEquals(4, numbers.size());
+            assertArrayEquals(new double[] { 1.5, -2e3 }, numbers.get(0));
+            assertArrayEquals(new double[] { 0.1, 7 }, numbers.get(1));
+            assertArrayEquals(new double[] { 123456789012345678901d, 0.5 }, numbers.get(2));
+            assertArrayEquals(new double[] { -0.000001, 1e-30 }, numbers.get(3));
+            assertEquals(List.of(0, 1, 0, 2), labels);
+            assertEquals(List.of("cat", "dog, \"big\"", "multi\nline"), reader.getCategories(2));
+        }
+        double[][] columns = FastCSV.readColumns(csv, true);
+        assertArrayEquals(new double[] { 0, 1, 0, 2 }, columns[2]);
+        Map<String, List<String>> byHeader = SimpleCSV.readFileWithHeaders(csv);
+        assertEquals(List.of("cat", "dog, \"big\"", "cat", "multi\nline"), byHeader.get("label"));
+    }
+
+}
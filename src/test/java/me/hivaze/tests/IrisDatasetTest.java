@@ -1,27 +1,57 @@
 package me.hivaze.tests;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import me.hivaze.neural.AdamOptimizer;
+import me.hivaze.neural.BackPropagationTrainer;
+import me.hivaze.neural.Checkpoints;
+import me.hivaze.neural.Dataset;
+import me.hivaze.neural.EpochMetrics;
+import me.hivaze.neural.EvolutionTrainer;
+import me.hivaze.neural.HogwildTrainer;
 import me.hivaze.neural.NeuralNetwork;
 import me.hivaze.neural.Neuron;
+import me.hivaze.neural.NeuronLayer;
+import me.hivaze.neural.Pruner;
+import me.hivaze.neural.PruningMask;
+import me.hivaze.neural.QuantizedNetwork;
+import me.hivaze.neural.Quantizer;
+import me.hivaze.neural.RingAllReduce;
+import me.hivaze.neural.SparseNetwork;
+import me.hivaze.neural.TrainingListener;
 import me.hivaze.utils.DatasetUtils;
 import me.hivaze.utils.Pair;
 import me.hivaze.utils.SimpleCSV;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class IrisDatasetTest {
 
     private final Path datasets = Paths.get("src/test/resources", "datasets");
     private final Random random = new Random();
 
-    @Test
-    public void backPropagationTest() throws IOException {
+    private Pair<List<Pair<double[]>>> irisExamples() throws IOException {
         List<List<String>> irisDataset = SimpleCSV.readFileWithoutHeaders(datasets.resolve("iris.csv"));
         Pair<List<List<String>>> split = DatasetUtils.splitInRandomCondition(irisDataset, 0.7);
         Function<List<String>, double[]> inputBuilder = row -> new double[] { Double.parseDouble(row.get(0)), Double.parseDouble(row.get(1)), Double.parseDouble(row.get(2)), Double.parseDouble(row.get(3)) };
@@ -38,8 +68,15 @@ public class IrisDatasetTest {
         };
         List<Pair<double[]>> trainingDataset = DatasetUtils.buildExamplesSet(split.getFirst(), inputBuilder, outputBuilder);
         List<Pair<double[]>> testDataset = DatasetUtils.buildExamplesSet(split.getSecond(), inputBuilder, outputBuilder);
+        return new Pair<>(trainingDataset, testDataset);
+    }
+
+    @Test
+    public void backPropagationTest() throws IOException {
+        Pair<List<Pair<double[]>>> examples = irisExamples();
+        List<Pair<double[]>> trainingDataset = examples.getFirst(), testDataset = examples.getSecond();
         NeuralNetwork neuralNetwork = new NeuralNetwork(4, new int[] { 8, 4, 8 }, 1, random, Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
-                .enableStateCaches().randomise();
+                .randomise();
         System.out.println(neuralNetwork.backPropagationTrain(trainingDataset, 0.005, new double[] { 0.01 }, 30_000));
         testDataset.forEach(example -> {
             double[] networkAnswer = neuralNetwork.output(example.getFirst());
@@ -47,4 +84,387 @@ public class IrisDatasetTest {
         });
     }
 
+    @Test
+    public void miniBatchBackPropagationTest() throws IOException {
+        Pair<List<Pair<double[]>>> examples = irisExamples();
+        NeuralNetwork neuralNetwork = new NeuralNetwork(4, new int[] { 8, 4, 8 }, 1, random, Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                .randomise();
+        System.out.println(new BackPropagationTrainer(neuralNetwork).learningSpeed(0.02).batchSize(8).parallelism(4)
+                .train(examples.getFirst(), new double[] { 0.01 }, 10_000));
+        examples.getSecond().forEach(example -> {
+            double[] networkAnswer = neuralNetwork.output(example.getFirst());
+            System.out.println(Arrays.toString(example.getFirst()) + " -> " + Arrays.toString(networkAnswer) + " | " + Arrays.toString(example.getSecond()));
+        });
+    }
+
+    @Test
+    public void hogwildTest() throws IOException {
+        Pair<List<Pair<double[]>>> examples = irisExamples();
+        List<Pair<double[]>> trainingDataset = examples.getFirst();
+        NeuralNetwork hogwildNetwork = new NeuralNetwork(4, new int[] { 8, 4, 8 }, 1, random, Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                .randomise();
+        long start = System.nanoTime();
+        long iterations = new HogwildTrainer(hogwildNetwork).learningSpeed(0.005).parallelism(4).train(trainingDataset, new double[] { 0.01 }, 5_000);
+        System.out.println("Hogwild: " + iterations + " epochs, " + samplesPerSecond(iterations * trainingDataset.size(), start) + " samples/s, accuracy " + accuracy(hogwildNetwork, examples.getSecond()));
+        NeuralNetwork miniBatchNetwork = new NeuralNetwork(4, new int[] { 8, 4, 8 }, 1, random, Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                .randomise();
+        start = System.nanoTime();
+        iterations = new BackPropagationTrainer(miniBatchNetwork).learningSpeed(0.02).batchSize(8).parallelism(4).train(trainingDataset, new double[] { 0.01 }, 5_000);
+        System.out.println("Mini-batch: " + iterations + " epochs, " + samplesPerSecond(iterations * trainingDataset.size(), start) + " samples/s, accuracy " + accuracy(miniBatchNetwork, examples.getSecond()));
+        assertTrue(accuracy(hogwildNetwork, examples.getSecond()) >= 0.8);
+    }
+
+    @Test
+    public void mixedPrecisionTest() throws IOException {
+        Pair<List<Pair<double[]>>> examples = irisExamples();
+        NeuralNetwork neuralNetwork = new NeuralNetwork(4, new int[] { 8, 4, 8 }, 1, random, Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW,
+                NeuralNetwork.Precision.MIXED).randomise();
+        System.out.println(neuralNetwork.backPropagationTrain(examples.getFirst(), 0.005, new double[] { 0.01 }, 5_000));
+        assertTrue(accuracy(neuralNetwork, examples.getSecond()) >= 0.8);
+    }
+
+    @Test
+    public void evolutionTest() throws IOException {
+        Pair<List<Pair<double[]>>> examples = irisExamples();
+        List<Pair<double[]>> trainingDataset = examples.getFirst();
+        NeuralNetwork evolvedNetwork = new NeuralNetwork(4, new int[] { 8 }, 1, random, Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                .randomise();
+        long start = System.nanoTime();
+        long generations = new EvolutionTrainer(evolvedNetwork).populationSize(64).train(trainingDataset, 0.5, 300);
+        System.out.println("Evolution: " + generations + " generations, " + (System.nanoTime() - start) / 1_000_000 + " ms, accuracy " + accuracy(evolvedNetwork, examples.getSecond()));
+        NeuralNetwork mutatedNetwork = new NeuralNetwork(4, new int[] { 8 }, 1, random, Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                .randomise();
+        start = System.nanoTime();
+        long iterations = mutatedNetwork.mutationTrain(trainingDataset, 0.2f, 0.5, 300 * 64);
+        System.out.println("Mutation: " + iterations + " iterations, " + (System.nanoTime() - start) / 1_000_000 + " ms, accuracy " + accuracy(mutatedNetwork, examples.getSecond()));
+        assertTrue(accuracy(evolvedNetwork, examples.getSecond()) >= 0.8);
+    }
+
+    @Test
+    public void adamTest() throws IOException {
+        Pair<List<Pair<double[]>>> examples = irisExamples();
+        List<Pair<double[]>> trainingDataset = examples.getFirst();
+        NeuralNetwork adamNetwork = new NeuralNetwork(4, new int[] { 8, 4, 8 }, 1, new Random(7), Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                .randomise();
+        new BackPropagationTrainer(adamNetwork).learningSpeed(0.01).batchSize(8).optimizer(new AdamOptimizer(adamNetwork))
+                .train(trainingDataset, new double[] { 0.01 }, 200);
+        NeuralNetwork sgdNetwork = new NeuralNetwork(4, new int[] { 8, 4, 8 }, 1, new Random(7), Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                .randomise();
+        new BackPropagationTrainer(sgdNetwork).learningSpeed(0.02).batchSize(8).train(trainingDataset, new double[] { 0.01 }, 200);
+        double adamError = meanSquaredError(adamNetwork, trainingDataset), sgdError = meanSquaredError(sgdNetwork, trainingDataset);
+        System.out.println("After 200 epochs, Adam: " + adamError + " MSE, accuracy " + accuracy(adamNetwork, examples.getSecond())
+                + " | SGD: " + sgdError + " MSE, accuracy " + accuracy(sgdNetwork, examples.getSecond()));
+        assertTrue(adamError < sgdError);
+    }
+
+    private static double meanSquaredError(NeuralNetwork neuralNetwork, List<Pair<double[]>> dataset) {
+        return dataset.stream().mapToDouble(example -> Math.pow(neuralNetwork.output(example.getFirst())[0] - example.getSecond()[0], 2)).average().orElse(0);
+    }
+
+    @Test
+    public void streamingDatasetTest(@TempDir Path tempDir) throws IOException {
+        Path destination = tempDir.resolve("iris.dset");
+        long records = Dataset.convertCsv(datasets.resolve("iris.csv"), destination, 4, 1, false, (row, input, target) -> {
+            for (int i = 0; i < input.length; i++) input[i] = row.getDouble(i);
+            target[0] = label(row.getString(4));
+        });
+        Dataset mapped = Dataset.open(destination);
+        assertEquals(150, records);
+        assertEquals(records, mapped.size());
+        double[] input = new double[4], target = new double[1];
+        mapped.copyInput(0, input);
+        mapped.copyTarget(0, target);
+        assertArrayEquals(new double[] { 5.1, 3.5, 1.4, 0.2 }, input);
+        assertArrayEquals(new double[] { 1 }, target);
+        double[][] answers = new double[2][];
+        Dataset[] sources = { mapped, Dataset.of(examplesOf(mapped)) };
+        for (int run = 0; run < answers.length; run++) {
+            NeuralNetwork neuralNetwork = new NeuralNetwork(4, new int[] { 8, 4 }, 1, new Random(42), Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                    .randomise();
+            new BackPropagationTrainer(neuralNetwork).learningSpeed(0.02).batchSize(8).shuffle(true).train(sources[run], new double[] { 0.01 }, 300);
+            answers[run] = neuralNetwork.output(input);
+            System.out.println("Shuffled " + (run == 0 ? "mapped" : "heap") + " dataset: " + Arrays.toString(answers[run]));
+        }
+        assertArrayEquals(answers[0], answers[1]);
+        // a failed conversion leaves the old file, a finished one replaces it under the open mapping
+        assertThrows(IllegalStateException.class, () -> Dataset.convertCsv(datasets.resolve("iris.csv"), destination, 4, 1, false, (row, in, out) -> {
+            if (row.getDouble(0) > 7) throw new IllegalStateException("Bad row");
+        }));
+        assertEquals(records, Dataset.open(destination).size());
+        Dataset.of(examplesOf(mapped).subList(0, 10)).saveTo(destination);
+        assertEquals(10, Dataset.open(destination).size());
+        mapped.copyInput(mapped.size() - 1, input);
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    private static List<Pair<double[]>> examplesOf(Dataset dataset) {
+        List<Pair<double[]>> examples = new ArrayList<>();
+        for (int i = 0; i < dataset.size(); i++) {
+            double[] input = new double[dataset.getInputSize()], target = new double[dataset.getTargetSize()];
+            dataset.copyInput(i, input);
+            dataset.copyTarget(i, target);
+            examples.add(new Pair<>(input, target));
+        }
+        return examples;
+    }
+
+    @Test
+    public void quantizationTest(@TempDir Path tempDir) throws IOException {
+        Pair<List<Pair<double[]>>> examples = irisExamples();
+        List<Pair<double[]>> trainingDataset = examples.getFirst(), testDataset = examples.getSecond();
+        NeuralNetwork neuralNetwork = new NeuralNetwork(4, new int[] { 8, 4, 8 }, 1, new Random(42), Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                .randomise();
+        new BackPropagationTrainer(neuralNetwork).learningSpeed(0.02).batchSize(8).train(trainingDataset, new double[] { 0.01 }, 1000);
+        List<double[]> calibration = trainingDataset.stream().map(Pair::getFirst).collect(Collectors.toList());
+        QuantizedNetwork quantized = new Quantizer(neuralNetwork).quantize(calibration);
+        Path modelPath = tempDir.resolve("iris-int8.dnn");
+        quantized.saveTo(modelPath);
+        QuantizedNetwork loaded = new QuantizedNetwork(modelPath);
+        double drift = 0;
+        for (Pair<double[]> example : testDataset) {
+            double[] expected = neuralNetwork.output(example.getFirst()), answer = quantized.output(example.getFirst());
+            assertArrayEquals(answer, loaded.output(example.getFirst()));
+            for (int i = 0; i < answer.length; i++) drift = Math.max(drift, Math.abs(answer[i] - expected[i]));
+        }
+        long floatBytes = 0;
+        for (NeuronLayer layer = neuralNetwork.getInputLayer(); layer != null; layer = layer.getOutput()) {
+            floatBytes += (long) (layer.getWeights().length() + layer.getBiases().length()) * layer.getWeights().bytesPerElement();
+        }
+        double floatAccuracy = accuracy(neuralNetwork, testDataset), quantizedAccuracy = accuracy(quantized::output, testDataset);
+        long start = System.nanoTime();
+        for (int i = 0; i < 20_000; i++) neuralNetwork.output(testDataset.get(i % testDataset.size()).getFirst());
+        long floatRate = samplesPerSecond(20_000, start);
+        start = System.nanoTime();
+        for (int i = 0; i < 20_000; i++) quantized.output(testDataset.get(i % testDataset.size()).getFirst());
+        long quantizedRate = samplesPerSecond(20_000, start);
+        System.out.println("Int8 drift: max output error " + drift + ", accuracy " + floatAccuracy + " -> " + quantizedAccuracy
+                + ", parameters " + floatBytes + " -> " + quantized.getParameterBytes() + " bytes, " + floatRate + " -> " + quantizedRate + " samples/s");
+        assertTrue(quantizedAccuracy >= floatAccuracy - 0.1);
+    }
+
+    @Test
+    public void pruningTest(@TempDir Path tempDir) throws IOException {
+        Pair<List<Pair<double[]>>> examples = irisExamples();
+        List<Pair<double[]>> trainingDataset = examples.getFirst(), testDataset = examples.getSecond();
+        NeuralNetwork neuralNetwork = new NeuralNetwork(4, new int[] { 64, 64 }, 1, new Random(42), Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                .randomise();
+        new BackPropagationTrainer(neuralNetwork).learningSpeed(0.01).batchSize(8).train(trainingDataset, new double[] { 0.01 }, 300);
+        Path densePath = tempDir.resolve("iris.dnn"), sparsePath = tempDir.resolve("iris-sparse.dnn");
+        neuralNetwork.saveTo(densePath);
+        double denseAccuracy = accuracy(neuralNetwork, testDataset);
+        PruningMask mask = new Pruner(neuralNetwork).sparsity(0.85).prune();
+        double prunedAccuracy = accuracy(neuralNetwork, testDataset);
+        new BackPropagationTrainer(neuralNetwork).learningSpeed(0.01).batchSize(8).mask(mask).train(trainingDataset, new double[] { 0.01 }, 100);
+        double tunedAccuracy = accuracy(neuralNetwork, testDataset);
+        SparseNetwork sparse = new SparseNetwork(neuralNetwork).saveTo(sparsePath);
+        assertEquals(mask.getSparsity(), sparse.getSparsity(), 1e-3);
+        SparseNetwork loaded = new SparseNetwork(sparsePath);
+        for (Pair<double[]> example : testDataset) {
+            double[] answer = sparse.output(example.getFirst());
+            assertArrayEquals(neuralNetwork.output(example.getFirst()), answer, 1e-12);
+            assertArrayEquals(answer, loaded.output(example.getFirst()));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < 50_000; i++) neuralNetwork.output(testDataset.get(i % testDataset.size()).getFirst());
+        long denseRate = samplesPerSecond(50_000, start);
+        start = System.nanoTime();
+        for (int i = 0; i < 50_000; i++) sparse.output(testDataset.get(i % testDataset.size()).getFirst());
+        long sparseRate = samplesPerSecond(50_000, start);
+        long denseBytes = Files.size(densePath), sparseBytes = Files.size(sparsePath);
+        System.out.println("Pruned to " + mask.getSparsity() + ": accuracy " + denseAccuracy + " -> " + prunedAccuracy + " -> " + tunedAccuracy + " tuned, file "
+                + denseBytes + " -> " + sparseBytes + " bytes, " + denseRate + " -> " + sparseRate + " samples/s");
+        assertTrue(tunedAccuracy >= denseAccuracy - 0.1);
+        assertTrue(sparseBytes < denseBytes / 2);
+    }
+
+    private static long samplesPerSecond(long samples, long startNanos) {
+        return samples * 1_000_000_000L / Math.max(1, System.nanoTime() - startNanos);
+    }
+
+    // the same encoding as irisExamples, whatever order the classes come in
+    private static double label(String species) {
+        return species.equals("Iris-setosa") ? 1 : species.equals("Iris-versicolor") ? 0 : -1;
+    }
+
+    private static double accuracy(NeuralNetwork neuralNetwork, List<Pair<double[]>> dataset) {
+        return accuracy(neuralNetwork::output, dataset);
+    }
+
+    private static double accuracy(Function<double[], double[]> model, List<Pair<double[]>> dataset) {
+        long hits = dataset.stream().filter(example -> Math.round(model.apply(example.getFirst())[0]) == Math.round(example.getSecond()[0])).count();
+        return (double) hits / dataset.size();
+    }
+
+    @Test
+    public void earlyStoppingTest() throws IOException {
+        Pair<List<Pair<double[]>>> examples = irisExamples();
+        List<Pair<double[]>> trainingDataset = examples.getFirst(), validationDataset = examples.getSecond();
+        NeuralNetwork neuralNetwork = new NeuralNetwork(4, new int[] { 8, 4, 8 }, 1, new Random(42), Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                .randomise();
+        double[] bestError = { Double.POSITIVE_INFINITY };
+        long iterations = new BackPropagationTrainer(neuralNetwork).learningSpeed(0.02).batchSize(8).parallelism(2).validation(validationDataset, 10, 20)
+                .listener(metrics -> {
+                    if (metrics.getValidationError() < bestError[0]) bestError[0] = metrics.getValidationError();
+                })
+                .train(trainingDataset, new double[] { 0.01 }, 30_000);
+        double validationError = meanSquaredError(neuralNetwork, validationDataset);
+        System.out.println("Stopped after " + iterations + " epochs, best validation MSE " + bestError[0] + ", kept " + validationError
+                + ", accuracy " + accuracy(neuralNetwork, validationDataset));
+        assertTrue(iterations < 30_000);
+        assertEquals(bestError[0], validationError, 1e-12);
+    }
+
+    @Test
+    public void listenerTest(@TempDir Path tempDir) throws IOException {
+        List<Pair<double[]>> trainingDataset = irisExamples().getFirst();
+        NeuralNetwork neuralNetwork = new NeuralNetwork(4, new int[] { 8, 4 }, 1, new Random(42), Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                .randomise();
+        List<EpochMetrics> epochs = new ArrayList<>();
+        TrainingListener jfr = TrainingListener.jfr();
+        Path recordingPath = tempDir.resolve("training.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("me.hivaze.neural.TrainingEpoch");
+            recording.start();
+            long iterations = new BackPropagationTrainer(neuralNetwork).learningSpeed(0.02).batchSize(8).parallelism(2).profileLayers(true)
+                    .listener(metrics -> {
+                        epochs.add(metrics);
+                        jfr.epochEnd(metrics);
+                    })
+                    .train(trainingDataset, new double[] { 0.01 }, 50);
+            recording.stop();
+            recording.dump(recordingPath);
+            assertEquals(iterations, epochs.size());
+        }
+        EpochMetrics last = epochs.get(epochs.size() - 1);
+        System.out.println(last);
+        assertEquals(trainingDataset.size(), last.getSamples());
+        assertTrue(last.getMeanErrors()[0] <= last.getMaxErrors()[0] && last.getSamplesPerSecond() > 0);
+        assertEquals(4, last.getForwardNanos().length);
+        assertTrue(last.getBackwardNanos()[3] > 0 && last.getUpdateNanos()[1] > 0);
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingPath);
+        assertEquals(epochs.size(), events.size());
+        assertEquals(last.getMaxErrors()[0], events.get(events.size() - 1).getDouble("maxError"));
+    }
+
+    @Test
+    public void checkpointResumeTest(@TempDir Path tempDir) throws IOException, InterruptedException {
+        List<Pair<double[]>> trainingDataset = irisExamples().getFirst();
+        double[] uninterrupted = null;
+        for (int run = 0; run < 2; run++) {
+            Path directory = tempDir.resolve("run" + run);
+            NeuralNetwork neuralNetwork = new NeuralNetwork(4, new int[] { 8, 4 }, 1, new Random(42), Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                    .randomise();
+            BackPropagationTrainer trainer = new BackPropagationTrainer(neuralNetwork).learningSpeed(0.01).batchSize(8).shuffle(true)
+                    .optimizer(new AdamOptimizer(neuralNetwork)).checkpoints(new Checkpoints(directory).interval(10).retain(2));
+            if (run == 0) {
+                assertEquals(60, trainer.train(trainingDataset, new double[] { 0 }, 60));
+                uninterrupted = neuralNetwork.output(trainingDataset.get(0).getFirst());
+                continue;
+            }
+            trainer.train(trainingDataset, new double[] { 0 }, 45);
+            // a fresh process: other weights, other random state, empty optimizer
+            NeuralNetwork restarted = new NeuralNetwork(4, new int[] { 8, 4 }, 1, new Random(7), Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                    .randomise();
+            Checkpoints checkpoints = new Checkpoints(directory).interval(10).retain(2);
+            assertEquals(directory.resolve("epoch-000000000040"), checkpoints.latest());
+            // as if the process died while rewriting epoch 40, with the old copy renamed aside
+            Files.move(directory.resolve("epoch-000000000040"), directory.resolve(".epoch-000000000040.old"));
+            assertEquals(directory.resolve(".epoch-000000000040.old"), checkpoints.latest());
+            assertEquals(60, new BackPropagationTrainer(restarted).learningSpeed(0.01).batchSize(8).shuffle(true)
+                    .optimizer(new AdamOptimizer(restarted)).checkpoints(checkpoints).resume().train(trainingDataset, new double[] { 0 }, 60));
+            double[] resumed = restarted.output(trainingDataset.get(0).getFirst());
+            System.out.println("Uninterrupted " + Arrays.toString(uninterrupted) + " | resumed from epoch 40 " + Arrays.toString(resumed));
+            assertArrayEquals(uninterrupted, resumed);
+            assertEquals(2, Files.list(directory).count());
+            // checkpoints left in the directory are only loaded when asked to
+            assertEquals(1, new NeuralNetwork(4, new int[] { 8, 4 }, 1, new Random(7), Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                    .mutationTrain(trainingDataset, 0.2f, 0, 1, checkpoints, false));
+        }
+        // a Random subclass may draw differently, its state can't be saved
+        NeuralNetwork subclassed = new NeuralNetwork(4, new int[] { 8 }, 1, new Random(42) {}, Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW);
+        assertThrows(IllegalArgumentException.class, () -> new BackPropagationTrainer(subclassed).checkpoints(new Checkpoints(tempDir.resolve("run2"))));
+        // idle writer threads end on their own
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (Thread.getAllStackTraces().keySet().stream().anyMatch(thread -> thread.getName().equals("checkpoint-writer"))) {
+            assertTrue(System.nanoTime() < deadline, "checkpoint writer threads left running");
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    public void distributedTest(@TempDir Path tempDir) throws IOException, InterruptedException {
+        Path dataset = tempDir.resolve("iris.dset"), checkpointDirectory = tempDir.resolve("checkpoints");
+        Dataset.convertCsv(datasets.resolve("iris.csv"), dataset, 4, 1, false, (row, input, target) -> {
+            for (int i = 0; i < input.length; i++) input[i] = row.getDouble(i);
+            target[0] = label(row.getString(4));
+        });
+        int worldSize = 3, port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        // the other ranks start from different weights, rank 0's are broadcast
+        List<Process> ranks = new ArrayList<>();
+        for (int rank = 1; rank < worldSize; rank++) {
+            ranks.add(new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-cp", System.getProperty("java.class.path"),
+                    IrisDatasetTest.class.getName(), String.valueOf(port), String.valueOf(rank), String.valueOf(worldSize), dataset.toString(),
+                    tempDir.resolve("rank-" + rank + ".dnn").toString()).inheritIO().start());
+        }
+        long start = System.nanoTime();
+        NeuralNetwork distributed;
+        try (RingAllReduce ring = RingAllReduce.join(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0, worldSize, 30_000)) {
+            distributed = trainRank(ring, Dataset.open(dataset), new Random(42), new Checkpoints(checkpointDirectory).interval(50));
+            System.out.println("Rank 0 waited " + ring.getWaitNanos() / 1_000_000 + " ms of " + (System.nanoTime() - start) / 1_000_000 + " ms on the others");
+        }
+        for (Process rank : ranks) assertEquals(0, rank.waitFor());
+        // a single process running the same global batches
+        NeuralNetwork single;
+        try (RingAllReduce alone = RingAllReduce.join(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0, 1, 1000)) {
+            single = new NeuralNetwork(4, new int[] { 8, 4, 8 }, 1, new Random(42), Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW).randomise();
+            new BackPropagationTrainer(single).learningSpeed(0.02).batchSize(4 * worldSize).shuffle(true).distributed(alone)
+                    .train(Dataset.open(dataset), new double[] { 0 }, 200);
+        }
+        double[] input = { 5.1, 3.5, 1.4, 0.2 };
+        for (int rank = 1; rank < worldSize; rank++) {
+            assertArrayEquals(distributed.output(input), new NeuralNetwork(tempDir.resolve("rank-" + rank + ".dnn")).output(input));
+        }
+        assertArrayEquals(single.output(input), distributed.output(input), 1e-9);
+        // rank 0 alone writes them
+        assertEquals("epoch-000000000200", new Checkpoints(checkpointDirectory).latest().getFileName().toString());
+        System.out.println("Distributed over " + worldSize + " JVMs: " + Arrays.toString(distributed.output(input)) + ", single " + Arrays.toString(single.output(input)));
+        // a rank that never shows up fails the others instead of hanging them
+        assertThrows(IOException.class, () -> RingAllReduce.join(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0, 2, 500));
+    }
+
+    // one of distributedTest's other ranks: coordinator port, rank, world size, dataset, where to save the trained network
+    public static void main(String[] args) throws IOException {
+        InetSocketAddress coordinator = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0]));
+        int rank = Integer.parseInt(args[1]);
+        try (RingAllReduce ring = RingAllReduce.join(coordinator, rank, Integer.parseInt(args[2]), 30_000)) {
+            trainRank(ring, Dataset.open(Paths.get(args[3])), new Random(rank), null).saveTo(Paths.get(args[4]));
+        }
+    }
+
+    private static NeuralNetwork trainRank(RingAllReduce ring, Dataset dataset, Random random, Checkpoints checkpoints) {
+        NeuralNetwork neuralNetwork = new NeuralNetwork(4, new int[] { 8, 4, 8 }, 1, random, Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                .randomise();
+        new BackPropagationTrainer(neuralNetwork).learningSpeed(0.02).batchSize(4).shuffle(true).distributed(ring)
+                .checkpoints(checkpoints).train(dataset, new double[] { 0 }, 200);
+        return neuralNetwork;
+    }
+
+    @Test
+    public void deterministicMiniBatchTest() throws IOException {
+        List<Pair<double[]>> trainingDataset = irisExamples().getFirst();
+        double[][] answers = new double[2][];
+        for (int run = 0; run < answers.length; run++) {
+            NeuralNetwork neuralNetwork = new NeuralNetwork(4, new int[] { 8, 4 }, 1, new Random(42), Neuron.Activation.TANH, NeuralNetwork.Initialization.NGUYEN_WIDROW)
+                    .randomise();
+            new BackPropagationTrainer(neuralNetwork).learningSpeed(0.02).batchSize(8).train(trainingDataset, new double[] { 0.01 }, 200);
+            answers[run] = neuralNetwork.output(trainingDataset.get(0).getFirst());
+        }
+        assertArrayEquals(answers[0], answers[1]);
+    }
+
 }
@@ -3,7 +3,6 @@ package me.hivaze.utils;
 import java.io.*;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -19,15 +18,14 @@ public class SimpleCSV {
     }
 
     public static HashMap<String, List<String>> readFileWithHeaders(Path path) throws IOException {
-        File file = path.toFile();
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+        try (FastCSV csv = new FastCSV(path)) {
             HashMap<String, List<String>> result = new HashMap<>();
-            String line, headers[] = br.readLine().split(",");
-            for (String header : headers) result.put(header, new ArrayList<>());
-            while ((line = br.readLine()) != null) {
-                String[] values = line.split(",");
-                for (int i = 0; i < values.length; i++) {
-                    result.get(headers[i]).add(values[i]);
+            csv.nextRow();
+            String[] headers = new String[csv.getColumnCount()];
+            for (int i = 0; i < headers.length; i++) result.put(headers[i] = csv.getString(i), new ArrayList<>());
+            while (csv.nextRow()) {
+                for (int i = 0; i < csv.getColumnCount(); i++) {
+                    result.get(headers[i]).add(csv.getString(i));
                 }
             }
             return result;
@@ -35,16 +33,7 @@ public class SimpleCSV {
     }
 
     public static List<List<String>> readFileWithoutHeaders(Path path) throws IOException {
-        File file = path.toFile();
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            List<List<String>> result = new ArrayList<>();
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] values = line.split(",");
-                result.add(Arrays.asList(values));
-            }
-            return result;
-        }
+        return FastCSV.readRows(path);
     }
 
 }
\ No newline at end of file